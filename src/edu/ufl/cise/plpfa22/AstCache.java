@@ -0,0 +1,151 @@
+package edu.ufl.cise.plpfa22;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import edu.ufl.cise.plpfa22.ast.ASTNode;
+import edu.ufl.cise.plpfa22.ast.AstArena;
+import edu.ufl.cise.plpfa22.ast.Program;
+
+// A directory of scoped and typed ASTs keyed by the SHA-256 of their source, so unchanged
+// programs skip lexing, parsing, scoping and type inference. Each entry starts with the CRC-32C
+// of the serialized arena after it; an entry that does not match is a miss.
+public class AstCache {
+
+    private static final int HEADER = 4;
+
+    private final Path dir;
+    // map cache files instead of reading them into the heap
+    private boolean mapped;
+
+    public AstCache(Path dir) {
+        this.dir = dir;
+        this.mapped = false;
+    }
+
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    // the decorated AST for input, from the cache if it is there
+    public Program compile(String input) throws PLPException {
+        Path file = fileFor(input);
+        try {
+            AstArena cached = load(file);
+            if (cached != null) {
+                return cached.toProgram();
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            // an unreadable or corrupt entry is treated as a miss and replaced
+        }
+        // parsing and the passes run on LargeStack, and the arena is built and read without
+        // recursion, so nesting is limited only as it is for any other compile
+        ASTNode ast = CompilerComponentFactory.getDeepParser(CompilerComponentFactory.getLexer(input)).parse();
+        ast.visit(CompilerComponentFactory.getScopeVisitor(), null);
+        ast.visit(CompilerComponentFactory.getTypeInferenceVisitor(), null);
+        try {
+            store(file, AstArena.fromProgram((Program) ast));
+        }
+        catch (IOException ex) {
+            // the cache is only an optimization; compiling still succeeded
+        }
+        return (Program) ast;
+    }
+
+    public AstArena load(String input) throws IOException {
+        return load(fileFor(input));
+    }
+
+    public void store(String input, AstArena arena) throws IOException {
+        store(fileFor(input), arena);
+    }
+
+    private AstArena load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer;
+            if (mapped) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            else {
+                // one sequential read of the whole entry
+                buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+            }
+            // a flipped bit can still read back as a well-formed tree, so check before reading
+            if (buffer.remaining() < HEADER) {
+                throw new IOException("Truncated or corrupt entry");
+            }
+            int expected = buffer.getInt();
+            CRC32C checksum = new CRC32C();
+            checksum.update(buffer.duplicate());
+            if ((int) checksum.getValue() != expected) {
+                throw new IOException("Truncated or corrupt entry");
+            }
+            return AstArena.read(buffer);
+        }
+        catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    private void store(Path file, AstArena arena) throws IOException {
+        Files.createDirectories(dir);
+        // written aside and moved into place, so readers never see a partial entry
+        Path temp = Files.createTempFile(dir, "ast", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                // the arena goes after the header, and its checksum into the header once known
+                channel.position(HEADER);
+                CRC32C checksum = new CRC32C();
+                OutputStream out = new CheckedOutputStream(Channels.newOutputStream(channel), checksum);
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+                arena.write(data);
+                data.flush();
+                channel.write(ByteBuffer.allocate(HEADER).putInt((int) checksum.getValue()).flip(), 0);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException ex) {
+                // a partial entry left by a crash here is read as corrupt and replaced
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            // nothing is left behind in the cache directory
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+    }
+
+    private Path fileFor(String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(hash) + ".ast");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
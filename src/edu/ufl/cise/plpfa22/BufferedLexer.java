@@ -0,0 +1,47 @@
+package edu.ufl.cise.plpfa22;
+
+public class BufferedLexer implements ILexer {
+
+    private TokenStream tokens;
+    private TokenStream.Cursor cursor;
+
+    public BufferedLexer(ILexer lexer) throws LexicalException {
+        // lex the whole input once; EOF is kept as the last entry
+        this(TokenStream.of(lexer));
+    }
+
+    public BufferedLexer(TokenStream tokens) {
+        this.tokens = tokens;
+        this.cursor = tokens.cursor();
+    }
+
+    public IToken next() {
+        IToken token = cursor.token();
+        // stays on EOF once it is reached
+        cursor.advance();
+        return token;
+    }
+
+    public IToken peek() {
+        return cursor.token();
+    }
+
+    public IToken peek(int k) {
+        if (k == 0) {
+            return cursor.token();
+        }
+        return tokens.getToken(Math.min(cursor.index() + k, tokens.size() - 1));
+    }
+
+    public void reset() {
+        cursor.seek(0);
+    }
+
+    public int size() {
+        return tokens.size();
+    }
+
+    public TokenStream getTokens() {
+        return tokens;
+    }
+}
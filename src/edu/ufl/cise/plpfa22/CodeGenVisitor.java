@@ -17,6 +17,9 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 	final String sourceFileName;
 	String fullyQualifiedClassName;
 	String classDesc;
+	// the program class, and the scope open at the current statement
+	final String programClass;
+	Frame frame;
 	List<ProcDec> procedures;
 
 	
@@ -27,11 +30,14 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 		this.sourceFileName = sourceFileName;
 		this.fullyQualifiedClassName = packageName + "/" + className;
 		this.classDesc="L"+this.fullyQualifiedClassName+';';
+		this.programClass = this.fullyQualifiedClassName;
+		this.frame = Frame.root();
 		this.procedures = new ArrayList<>();
 	}
 
 	@Override
 	public Object visitBlock(Block block, Object arg) throws PLPException {
+		LargeStack.checkInterrupted();
 		ClassWriter cw = (ClassWriter)arg;
 		List<Declaration> decs = new ArrayList<>(block.constDecs);
 		decs.addAll(block.varDecs);
@@ -159,12 +165,11 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 	public Object visitStatementCall(StatementCall statementCall, Object arg) throws PLPException {
 		MethodVisitor mv = (MethodVisitor)arg;
 		String procedure = ((ProcDec)statementCall.ident.getDec()).jvmName;
+		Address address = address(statementCall.ident.getAddress(), statementCall.ident.getDec());
 		mv.visitTypeInsn(NEW, procedure);
 		mv.visitInsn(DUP);
-		mv.visitVarInsn(ALOAD, 0);
-		int nestDiff = statementCall.ident.getNest() - statementCall.ident.getDec().getNest();
-		loopNest(mv, nestDiff, statementCall.ident.getNest());
-		mv.visitMethodInsn(INVOKESPECIAL, procedure, "<init>", "(" + getOuterDesc(procedure, 1) + ")V", false);
+		loadOwner(mv, address);
+		mv.visitMethodInsn(INVOKESPECIAL, procedure, "<init>", "(" + address.getOwnerDesc() + ")V", false);
 		mv.visitVarInsn(ASTORE, 1);
 		mv.visitVarInsn(ALOAD, 1);
 		mv.visitMethodInsn(INVOKEVIRTUAL, procedure, "run", "()V", false);
@@ -190,6 +195,7 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 
 	@Override
 	public Object visitStatementBlock(StatementBlock statementBlock, Object arg) throws PLPException {
+		LargeStack.checkInterrupted();
 		for (Statement statement : statementBlock.statements) {
 			statement.visit(this, arg);
 		}
@@ -466,14 +472,9 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 	@Override
 	public Object visitExpressionIdent(ExpressionIdent expressionIdent, Object arg) throws PLPException {
 		MethodVisitor mv = (MethodVisitor)arg;
-		int nestDiff = expressionIdent.getNest() - expressionIdent.getDec().getNest();
-		mv.visitVarInsn(ALOAD, 0);
-		loopNest(mv, nestDiff, expressionIdent.getNest());
-		switch (expressionIdent.getType()) {
-			case NUMBER -> mv.visitFieldInsn(GETFIELD, getOuterClass(fullyQualifiedClassName, nestDiff), getVarName(expressionIdent.getDec()), "I");
-			case BOOLEAN -> mv.visitFieldInsn(GETFIELD, getOuterClass(fullyQualifiedClassName, nestDiff), getVarName(expressionIdent.getDec()), "Z");
-			case STRING -> mv.visitFieldInsn(GETFIELD, getOuterClass(fullyQualifiedClassName, nestDiff), getVarName(expressionIdent.getDec()), "Ljava/lang/String;");
-		}
+		Address address = address(expressionIdent.getAddress(), expressionIdent.getDec());
+		loadOwner(mv, address);
+		mv.visitFieldInsn(GETFIELD, address.getOwner(), address.getName(), address.getDesc());
 		return null;
 	}
 
@@ -513,14 +514,17 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 				classDesc, null, null);
 		fv.visitEnd();
 		String[] ogs = {fullyQualifiedClassName, classDesc};
+		Frame outerFrame = frame;
 		fullyQualifiedClassName = innerClass;
 		classDesc = "L" + innerClass + ";";
+		frame = outerFrame.enter(getVarName(procDec));
 		Object o = procDec.block.visit(this, cw);
 		List<GenClass> classes = new ArrayList<>();
 		if (o instanceof List<?>)
 			classes.addAll((ArrayList<GenClass>)o);
 		fullyQualifiedClassName = ogs[0];
 		classDesc = ogs[1];
+		frame = outerFrame;
 		cw.visitEnd();
 		classes.add(new GenClass(innerClass, cw.toByteArray()));
 		return classes;
@@ -544,24 +548,16 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 	@Override
 	public Object visitIdent(Ident ident, Object arg) throws PLPException {
 		MethodVisitor mv = (MethodVisitor)arg;
-		int nestDiff = ident.getNest() - ident.getDec().getNest();
-		mv.visitVarInsn(ALOAD, 0);
-		loopNest(mv, nestDiff, ident.getNest());
+		Address address = address(ident.getAddress(), ident.getDec());
+		loadOwner(mv, address);
 		mv.visitInsn(SWAP);
-		switch (ident.getDec().getType()) {
-			case NUMBER -> mv.visitFieldInsn(PUTFIELD, getOuterClass(fullyQualifiedClassName, nestDiff), getVarName(ident.getDec()), "I");
-			case BOOLEAN -> mv.visitFieldInsn(PUTFIELD, getOuterClass(fullyQualifiedClassName, nestDiff), getVarName(ident.getDec()), "Z");
-			case STRING -> mv.visitFieldInsn(PUTFIELD, getOuterClass(fullyQualifiedClassName, nestDiff), getVarName(ident.getDec()), "Ljava/lang/String;");
-		}
+		mv.visitFieldInsn(PUTFIELD, address.getOwner(), address.getName(), address.getDesc());
 		return null;
 	}
 
 	private String getVarName(Declaration dec) {
-		if (dec instanceof ConstDec)
-			return String.copyValueOf(((ConstDec)dec).ident.getText());
-		else if (dec instanceof VarDec)
-			return String.copyValueOf(((VarDec)dec).ident.getText());
-		return String.copyValueOf(((ProcDec)dec).ident.getText());
+		// canonical name from the symbol pool, no copy per access
+		return SymbolTable.getIdentText(dec);
 	}
 
 	private String getDesc(Type type) {
@@ -594,15 +590,6 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 		return result;
 	}
 
-	private String getOuterDesc(String inner, int nest) {
-		String result = inner;
-		for (int i = 0; i < nest; i++) {
-			int index = result.lastIndexOf('$');
-			result = result.substring(0, index);
-		}
-		return "L" + result + ";";
-	}
-
 	private void annotateProcedures(Block block, String outerClass) {
 		if (block.procedureDecs.size() == 0)
 			return;
@@ -620,12 +607,18 @@ public class CodeGenVisitor implements ASTVisitor, Opcodes {
 		}
 	}
 
-	private void loopNest(MethodVisitor mv, int nestDiff, int nest) {
-		String fullName = fullyQualifiedClassName;
-		for (int i = nestDiff; i > 0; i--) {
-			mv.visitFieldInsn(GETFIELD, fullName, "this$" + (nest - 1), getOuterDesc(fullName, 1));
-			fullName = getOuterClass(fullName, 1);
-			nest--;
-		}
+	// scope resolution normally worked the address out already; an AST decorated some
+	// other way (e.g. read back from an AstArena) gets one from the scopes open here
+	private Address address(Address resolved, Declaration dec) {
+		Address address = resolved != null ? resolved : SymbolTable.address(frame, dec);
+		address.bind(programClass, dec.getType());
+		return address;
+	}
+
+	// leaves the instance holding the declaration on the stack
+	private void loadOwner(MethodVisitor mv, Address address) {
+		mv.visitVarInsn(ALOAD, 0);
+		for (int i = 0; i < address.getHops(); i++)
+			mv.visitFieldInsn(GETFIELD, address.getLinkOwner(i), address.getLinkField(i), address.getLinkDesc(i));
 	}
 }
@@ -4,6 +4,13 @@
 
 package edu.ufl.cise.plpfa22;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 import edu.ufl.cise.plpfa22.ast.ASTVisitor;
 
 public class CompilerComponentFactory {
@@ -12,19 +19,84 @@ public class CompilerComponentFactory {
         return new Lexer(input);
     }
 
+    public static ILexer getLexer(Reader reader) {
+        return new Lexer(reader);
+    }
+
+    public static ILexer getLexer(ReadableByteChannel channel) {
+        return new Lexer(channel);
+    }
+
+    public static ILexer getLexer(Path path) throws LexicalException {
+        try {
+            MappedSourceReader reader = new MappedSourceReader(path);
+            if (reader.isAscii()) {
+                return new Lexer(reader);
+            }
+            // decoded as UTF-8, the same as any other channel
+            reader.close();
+            return new Lexer(FileChannel.open(path, StandardOpenOption.READ));
+        }
+        catch (IOException ex) {
+            throw new LexicalException("Could not read " + path, ex);
+        }
+    }
+
+    public static ILexer getRecoveringLexer(String input) {
+        Lexer lexer = new Lexer(input);
+        lexer.setRecovery(true);
+        return lexer;
+    }
+
+    public static ILexer getBufferedLexer(String input) throws LexicalException {
+        return new BufferedLexer(new Lexer(input));
+    }
+
+    public static ILexer getParallelLexer(String input) throws LexicalException {
+        return new BufferedLexer(ParallelLexer.tokenize(input));
+    }
+
     public static IParser getParser(ILexer lexer) {
         return new Parser(lexer);
     }
 
+    public static IParser getLazyParser(ILexer lexer) {
+        return new Parser(lexer, true);
+    }
+
+    public static IParser getRecoveringParser(ILexer lexer) {
+        Parser parser = new Parser(lexer);
+        parser.setRecovery(true);
+        return parser;
+    }
+
+    public static IParser getParallelParser(ILexer lexer) {
+        Parser parser = new Parser(lexer);
+        parser.setParallel(true);
+        return parser;
+    }
+
+    // every parser runs on a large stack (see LargeStack); kept for callers that ask for it
+    public static IParser getDeepParser(ILexer lexer) {
+        return new Parser(lexer);
+    }
+
+    // the visitors recurse over the tree, so they run on a large stack (see LargeStack)
     public static ASTVisitor getScopeVisitor() {
-        return new Visitor();
+        return LargeStack.visitor(new Visitor());
+    }
+
+    public static ASTVisitor getParallelScopeVisitor() {
+        Visitor visitor = new Visitor();
+        visitor.setParallel(true);
+        return LargeStack.visitor(visitor);
     }
 
     public static ASTVisitor getTypeInferenceVisitor() {
-        return new TypeVisitor();
+        return LargeStack.visitor(new TypeVisitor());
     }
 
     public static ASTVisitor getCodeGenVisitor(String packageName, String className, String sourceFileName) {
-        return new CodeGenVisitor(packageName, className, sourceFileName);
+        return LargeStack.visitor(new CodeGenVisitor(packageName, className, sourceFileName));
     }
 }
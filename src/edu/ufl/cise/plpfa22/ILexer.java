@@ -18,4 +18,12 @@ public interface ILexer {
      * @throws LexicalException
      */
     IToken peek() throws LexicalException;
+
+    /**
+     * Return the IToken k positions after the one peek() would return, without advancing the internal position.  peek(0) is equivalent to peek().
+     * @param k
+     * @return
+     * @throws LexicalException
+     */
+    IToken peek(int k) throws LexicalException;
 }
@@ -80,6 +80,12 @@ public interface IToken {
      */
     public int getIntValue();
 
+    /**
+     * Precondition:  getKind == IDENT
+     * @return id of this identifier's name in the SymbolPool of its lexer
+     */
+    public int getSymbol();
+
     /**
      * Precondition:  getKind == BOOLEAN_LIT
      * @return boolean value represented by the characters in this IToken
@@ -92,4 +98,10 @@ public interface IToken {
      */
     public String getStringValue();
 
+    /**
+     * Precondition:  getKind == ERROR
+     * @return the problem found by a lexer in recovery mode
+     */
+    public LexicalException getError();
+
 }
@@ -0,0 +1,225 @@
+package edu.ufl.cise.plpfa22;
+
+import edu.ufl.cise.plpfa22.ast.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the recursive parser and visitors on threads with a large stack, so deeply nested
+// programs do not overflow the caller's stack. Stack pages are only committed when touched.
+// Parser.parse and every visitor from CompilerComponentFactory run here, and work they split
+// up runs through all, on the same threads. They are still recursive, so nesting is bounded
+// by STACK_SIZE: a few million levels of statements or parentheses (4 million parse, scope and
+// type check). The threads are pooled, and work already on one of them runs in place.
+public class LargeStack {
+
+    public static final long STACK_SIZE = 1L << 30;
+
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            60, TimeUnit.SECONDS, new SynchronousQueue<>(), Worker::new);
+
+    // threads helping with all at once, across every caller
+    private static final Semaphore HELPERS = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    public interface Task<T> {
+        T run() throws PLPException;
+    }
+
+    private static class Worker extends Thread {
+        Worker(Runnable runnable) {
+            super(null, runnable, "plp-large-stack", STACK_SIZE);
+            setDaemon(true);
+        }
+    }
+
+    public static <T> T run(Task<T> task) throws PLPException {
+        if (Thread.currentThread() instanceof Worker) {
+            return task.run();
+        }
+        Future<T> future = EXECUTOR.submit(task::run);
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            // the parser and visitors check for this and stop
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PLPException("Interrupted", ex);
+        }
+        catch (ExecutionException ex) {
+            throw rethrow(ex.getCause());
+        }
+    }
+
+    // Runs tasks concurrently and returns their results in order. The caller works through
+    // them, helped by as many pooled threads as are free, so nested calls cannot run out of
+    // threads. Once all have finished, the first task to fail, in order, has its exception
+    // thrown, as if they had run one after another.
+    public static <T> List<T> all(List<? extends Task<T>> tasks) throws PLPException {
+        int n = tasks.size();
+        List<T> results = new ArrayList<>(Collections.nCopies(n, null));
+        Throwable[] failures = new Throwable[n];
+        AtomicInteger next = new AtomicInteger();
+        Runnable work = () -> {
+            for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement()) {
+                try {
+                    results.set(i, tasks.get(i).run());
+                }
+                catch (Throwable ex) {
+                    failures[i] = ex;
+                }
+            }
+        };
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < n && HELPERS.tryAcquire(); i++) {
+            helpers.add(EXECUTOR.submit(() -> {
+                try {
+                    work.run();
+                }
+                finally {
+                    HELPERS.release();
+                }
+            }));
+        }
+        run(() -> {
+            work.run();
+            return null;
+        });
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            }
+            catch (InterruptedException ex) {
+                next.set(n);
+                for (Future<?> h : helpers) {
+                    h.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new PLPException("Interrupted", ex);
+            }
+            catch (ExecutionException ex) {
+                throw rethrow(ex.getCause());
+            }
+        }
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw rethrow(failure);
+            }
+        }
+        return results;
+    }
+
+    private static PLPException rethrow(Throwable cause) {
+        if (cause instanceof PLPException) {
+            return (PLPException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new PLPException(cause);
+    }
+
+    // lets a cancelled parse or visit stop instead of running on unobserved
+    static void checkInterrupted() throws PLPException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new PLPException("Interrupted");
+        }
+    }
+
+    public static Object visit(ASTNode node, ASTVisitor visitor, Object arg) throws PLPException {
+        return run(() -> node.visit(visitor, arg));
+    }
+
+    // a visitor whose visits, started from any node, run on a large stack
+    public static ASTVisitor visitor(ASTVisitor v) {
+        return new ASTVisitor() {
+            public Object visitBlock(Block block, Object arg) throws PLPException {
+                return run(() -> v.visitBlock(block, arg));
+            }
+
+            public Object visitProgram(Program program, Object arg) throws PLPException {
+                return run(() -> v.visitProgram(program, arg));
+            }
+
+            public Object visitStatementAssign(StatementAssign statementAssign, Object arg) throws PLPException {
+                return run(() -> v.visitStatementAssign(statementAssign, arg));
+            }
+
+            public Object visitVarDec(VarDec varDec, Object arg) throws PLPException {
+                return run(() -> v.visitVarDec(varDec, arg));
+            }
+
+            public Object visitStatementCall(StatementCall statementCall, Object arg) throws PLPException {
+                return run(() -> v.visitStatementCall(statementCall, arg));
+            }
+
+            public Object visitStatementInput(StatementInput statementInput, Object arg) throws PLPException {
+                return run(() -> v.visitStatementInput(statementInput, arg));
+            }
+
+            public Object visitStatementOutput(StatementOutput statementOutput, Object arg) throws PLPException {
+                return run(() -> v.visitStatementOutput(statementOutput, arg));
+            }
+
+            public Object visitStatementBlock(StatementBlock statementBlock, Object arg) throws PLPException {
+                return run(() -> v.visitStatementBlock(statementBlock, arg));
+            }
+
+            public Object visitStatementIf(StatementIf statementIf, Object arg) throws PLPException {
+                return run(() -> v.visitStatementIf(statementIf, arg));
+            }
+
+            public Object visitStatementWhile(StatementWhile statementWhile, Object arg) throws PLPException {
+                return run(() -> v.visitStatementWhile(statementWhile, arg));
+            }
+
+            public Object visitExpressionBinary(ExpressionBinary expressionBinary, Object arg) throws PLPException {
+                return run(() -> v.visitExpressionBinary(expressionBinary, arg));
+            }
+
+            public Object visitExpressionIdent(ExpressionIdent expressionIdent, Object arg) throws PLPException {
+                return run(() -> v.visitExpressionIdent(expressionIdent, arg));
+            }
+
+            public Object visitExpressionNumLit(ExpressionNumLit expressionNumLit, Object arg) throws PLPException {
+                return run(() -> v.visitExpressionNumLit(expressionNumLit, arg));
+            }
+
+            public Object visitExpressionStringLit(ExpressionStringLit expressionStringLit, Object arg) throws PLPException {
+                return run(() -> v.visitExpressionStringLit(expressionStringLit, arg));
+            }
+
+            public Object visitExpressionBooleanLit(ExpressionBooleanLit expressionBooleanLit, Object arg) throws PLPException {
+                return run(() -> v.visitExpressionBooleanLit(expressionBooleanLit, arg));
+            }
+
+            public Object visitProcedure(ProcDec procDec, Object arg) throws PLPException {
+                return run(() -> v.visitProcedure(procDec, arg));
+            }
+
+            public Object visitConstDec(ConstDec constDec, Object arg) throws PLPException {
+                return run(() -> v.visitConstDec(constDec, arg));
+            }
+
+            public Object visitStatementEmpty(StatementEmpty statementEmpty, Object arg) throws PLPException {
+                return run(() -> v.visitStatementEmpty(statementEmpty, arg));
+            }
+
+            public Object visitIdent(Ident ident, Object arg) throws PLPException {
+                return run(() -> v.visitIdent(ident, arg));
+            }
+        };
+    }
+}
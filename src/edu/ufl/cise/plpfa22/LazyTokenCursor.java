@@ -0,0 +1,59 @@
+package edu.ufl.cise.plpfa22;
+
+import edu.ufl.cise.plpfa22.IToken.Kind;
+
+// Pulls tokens from a lexer only as the parser reaches them. At most CAPACITY tokens are
+// held, in a ring buffer, so memory does not grow with the size of the program.
+public class LazyTokenCursor implements TokenCursor {
+
+    private static final int CAPACITY = 4;
+
+    private final ILexer lexer;
+    private final IToken[] ring;
+    // ring[head] is the current token; count tokens are buffered from there
+    private int head;
+    private int count;
+
+    public LazyTokenCursor(ILexer lexer) {
+        this.lexer = lexer;
+        this.ring = new IToken[CAPACITY];
+        this.head = 0;
+        this.count = 0;
+    }
+
+    public Kind kind() throws LexicalException {
+        return token().getKind();
+    }
+
+    public Kind kind(int k) throws LexicalException {
+        if (k >= CAPACITY) {
+            throw new IllegalArgumentException("Lookahead of " + k + " exceeds " + (CAPACITY - 1));
+        }
+        fill(k + 1);
+        return ring[(head + k) & (CAPACITY - 1)].getKind();
+    }
+
+    public IToken token() throws LexicalException {
+        fill(1);
+        return ring[head];
+    }
+
+    public void advance() throws LexicalException {
+        fill(1);
+        if (ring[head].getKind().equals(Kind.EOF)) {
+            return;
+        }
+        ring[head] = null;
+        head = (head + 1) & (CAPACITY - 1);
+        count--;
+    }
+
+    // buffers at least n tokens, repeating EOF once the lexer is done
+    private void fill(int n) throws LexicalException {
+        while (count < n) {
+            IToken last = count == 0 ? null : ring[(head + count - 1) & (CAPACITY - 1)];
+            ring[(head + count) & (CAPACITY - 1)] = last != null && last.getKind().equals(Kind.EOF) ? last : lexer.next();
+            count++;
+        }
+    }
+}
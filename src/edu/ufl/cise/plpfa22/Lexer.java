@@ -1,274 +1,542 @@
 package edu.ufl.cise.plpfa22;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import edu.ufl.cise.plpfa22.IToken.Kind;
 
 public class Lexer implements ILexer{
 
+    // character classes for ASCII; anything above falls back to Character
+    private static final byte LETTER = 1;
+    private static final byte DIGIT = 2;
+    private static final byte[] CHAR_CLASS = new byte[128];
+    private static final Kind[] OPERATORS = new Kind[128];
+    private static final char[][] RESERVED_TEXT = new char[16][];
+    private static final Kind[] RESERVED_KINDS = new Kind[16];
+    private static final int WINDOW_SIZE = 8192;
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHAR_CLASS[c] = LETTER;
+            CHAR_CLASS[Character.toUpperCase(c)] = LETTER;
+        }
+        CHAR_CLASS['_'] = LETTER;
+        CHAR_CLASS['$'] = LETTER;
+        for (char c = '0'; c <= '9'; c++) {
+            CHAR_CLASS[c] = DIGIT;
+        }
+        OPERATORS['.'] = Kind.DOT;
+        OPERATORS[','] = Kind.COMMA;
+        OPERATORS[';'] = Kind.SEMI;
+        OPERATORS['('] = Kind.LPAREN;
+        OPERATORS[')'] = Kind.RPAREN;
+        OPERATORS['+'] = Kind.PLUS;
+        OPERATORS['-'] = Kind.MINUS;
+        OPERATORS['*'] = Kind.TIMES;
+        OPERATORS['/'] = Kind.DIV;
+        OPERATORS['%'] = Kind.MOD;
+        OPERATORS['?'] = Kind.QUESTION;
+        OPERATORS['!'] = Kind.BANG;
+        OPERATORS['='] = Kind.EQ;
+        OPERATORS['#'] = Kind.NEQ;
+        OPERATORS['<'] = Kind.LT;
+        OPERATORS['>'] = Kind.GT;
+        reserve("TRUE", Kind.BOOLEAN_LIT);
+        reserve("FALSE", Kind.BOOLEAN_LIT);
+        reserve("CONST", Kind.KW_CONST);
+        reserve("VAR", Kind.KW_VAR);
+        reserve("PROCEDURE", Kind.KW_PROCEDURE);
+        reserve("CALL", Kind.KW_CALL);
+        reserve("BEGIN", Kind.KW_BEGIN);
+        reserve("END", Kind.KW_END);
+        reserve("IF", Kind.KW_IF);
+        reserve("THEN", Kind.KW_THEN);
+        reserve("WHILE", Kind.KW_WHILE);
+        reserve("DO", Kind.KW_DO);
+    }
+
+    // the whole source, or a sliding window over it when reading from a Reader
     private char[] input;
+    private int limit;
+    private Reader reader;
+    private boolean exhausted;
+    // start of the token being scanned; a refill keeps everything from here on
+    private int markPos;
     private int pos;
     private int col;
     private int line;
+    // tokens already scanned by peek but not yet returned by next
+    private List<IToken> lookahead;
+    private int lookaheadPos;
+    // the most recently scanned token
+    private Kind tokKind;
+    private int tokStart;
+    private int tokLength;
+    private int tokLine;
+    private int tokCol;
+    private int tokValue;
+    // value of the most recent STRING_LIT with escapes handled
+    private StringBuilder decoded;
+    // in recovery mode problems become ERROR tokens and are collected here
+    private boolean recover;
+    private List<LexicalException> errors;
+    // the names of this compilation
+    private final SymbolPool symbols;
 
     public Lexer(String input) {
         this.input = input.toCharArray();
+        this.limit = this.input.length;
+        this.reader = null;
+        this.exhausted = true;
+        this.markPos = 0;
+        this.pos = 0;
+        this.col = 1;
+        this.line = 1;
+        this.lookahead = new ArrayList<>();
+        this.lookaheadPos = 0;
+        this.decoded = new StringBuilder();
+        this.recover = false;
+        this.errors = new ArrayList<>();
+        this.symbols = new SymbolPool();
+    }
+
+    // lexes input[start, end) as if it began at the given line and column, interning into symbols
+    Lexer(char[] input, int start, int end, int line, int col, SymbolPool symbols) {
+        this.input = input;
+        this.limit = end;
+        this.reader = null;
+        this.exhausted = true;
+        this.markPos = start;
+        this.pos = start;
+        this.col = col;
+        this.line = line;
+        this.lookahead = new ArrayList<>();
+        this.lookaheadPos = 0;
+        this.decoded = new StringBuilder();
+        this.recover = false;
+        this.errors = new ArrayList<>();
+        this.symbols = symbols;
+    }
+
+    public Lexer(Reader reader) {
+        this(reader, WINDOW_SIZE);
+    }
+
+    Lexer(Reader reader, int windowSize) {
+        this.input = new char[windowSize];
+        this.limit = 0;
+        this.reader = reader;
+        this.exhausted = false;
+        this.markPos = 0;
         this.pos = 0;
         this.col = 1;
         this.line = 1;
+        this.lookahead = new ArrayList<>();
+        this.lookaheadPos = 0;
+        this.decoded = new StringBuilder();
+        this.recover = false;
+        this.errors = new ArrayList<>();
+        this.symbols = new SymbolPool();
+    }
+
+    public Lexer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8));
+    }
+
+    public void setRecovery(boolean recover) {
+        this.recover = recover;
+    }
+
+    public List<LexicalException> getErrors() {
+        return errors;
     }
 
     public IToken next() throws LexicalException {
-        Token tok = null;
+        if (lookaheadPos < lookahead.size()) {
+            IToken tok = lookahead.get(lookaheadPos++);
+            if (lookaheadPos == lookahead.size()) {
+                lookahead.clear();
+                lookaheadPos = 0;
+            }
+            return tok;
+        }
+        return scan();
+    }
+
+    public IToken peek() throws LexicalException {
+        return peek(0);
+    }
+
+    public IToken peek(int k) throws LexicalException {
+        // scan ahead only as far as needed; each token is scanned once
+        while (lookahead.size() - lookaheadPos <= k) {
+            lookahead.add(scan());
+        }
+        return lookahead.get(lookaheadPos + k);
+    }
+
+    public TokenStream tokenize() throws LexicalException {
+        // a sliding window is reused, so a streaming lexer copies token text into the stream
+        TokenStream stream = reader == null ? new TokenStream(input, symbols) : new TokenStream(symbols);
+        // hand over anything already peeked
+        for (int i = lookaheadPos; i < lookahead.size(); i++) {
+            stream.add(lookahead.get(i));
+        }
+        lookahead.clear();
+        lookaheadPos = 0;
+        if (stream.size() > 0 && stream.getKind(stream.size() - 1).equals(Kind.EOF)) {
+            return stream;
+        }
+        do {
+            scanToken();
+            if (tokKind == Kind.ERROR) {
+                tokValue = stream.addError(errors.get(tokValue));
+            }
+            if (reader == null) {
+                stream.add(tokKind, tokStart, tokLength, tokLine, tokCol, tokValue);
+            }
+            else {
+                stream.append(tokKind, input, tokStart, tokLength, tokLine, tokCol, tokValue);
+            }
+        } while (!tokKind.equals(Kind.EOF));
+        return stream;
+    }
+
+    // Re-lexes previous after replacing source[offset, offset + removed) with inserted. Lexing
+    // restarts at the last token that ends before the edit and stops as soon as a new token
+    // starts where an old one did, in the same column; the rest of the old tokens are shifted.
+    public static TokenStream relex(TokenStream previous, int offset, int removed, String inserted)
+            throws LexicalException {
+        if (previous.ownsSource()) {
+            throw new IllegalArgumentException("Token stream does not refer to its source");
+        }
+        char[] old = previous.getSource();
+        if (offset < 0 || removed < 0 || offset + removed > old.length) {
+            throw new IllegalArgumentException("Edit is outside the source");
+        }
+        int delta = inserted.length() - removed;
+        char[] source = new char[old.length + delta];
+        System.arraycopy(old, 0, source, 0, offset);
+        inserted.getChars(0, inserted.length(), source, offset);
+        System.arraycopy(old, offset + removed, source, offset + inserted.length(), old.length - offset - removed);
+        // the last token ending strictly before the edit cannot be changed by it
+        int lo = 0;
+        int hi = previous.size() - 1;
+        int restart = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (previous.getOffset(mid) + previous.getLength(mid) < offset) {
+                restart = mid;
+                lo = mid + 1;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        TokenStream stream = new TokenStream(source, previous.getSymbols());
+        Lexer lexer;
+        if (restart < 0) {
+            restart = 0;
+            lexer = new Lexer(source, 0, source.length, 1, 1, previous.getSymbols());
+        }
+        else {
+            lexer = new Lexer(source, previous.getOffset(restart), source.length,
+                    previous.getLine(restart), previous.getColumn(restart), previous.getSymbols());
+        }
+        stream.addRange(previous, 0, restart, 0, 0);
+        int editEnd = offset + inserted.length();
+        int oldIndex = restart;
+        while (true) {
+            lexer.scanToken();
+            if (lexer.tokStart >= editEnd) {
+                // past the edit, an old token starting at the same place lexes the same way
+                int oldStart = lexer.tokStart - delta;
+                while (oldIndex < previous.size() && previous.getOffset(oldIndex) < oldStart) {
+                    oldIndex++;
+                }
+                if (oldIndex < previous.size() && previous.getOffset(oldIndex) == oldStart
+                        && previous.getColumn(oldIndex) == lexer.tokCol) {
+                    stream.addRange(previous, oldIndex, previous.size(), delta, lexer.tokLine - previous.getLine(oldIndex));
+                    return stream;
+                }
+            }
+            stream.add(lexer.tokKind, lexer.tokStart, lexer.tokLength, lexer.tokLine, lexer.tokCol, lexer.tokValue);
+            if (lexer.tokKind.equals(Kind.EOF)) {
+                return stream;
+            }
+        }
+    }
+
+    private IToken scan() throws LexicalException {
+        scanToken();
+        Token token;
+        if (reader == null) {
+            token = new Token(tokKind, input, tokStart, tokLength, tokLine, tokCol, tokValue);
+        }
+        else {
+            char[] text = Arrays.copyOfRange(input, tokStart, tokStart + tokLength);
+            token = new Token(tokKind, text, 0, tokLength, tokLine, tokCol, tokValue);
+        }
+        if (tokKind.equals(Kind.STRING_LIT)) {
+            token.setStringValue(decoded.toString());
+        }
+        else if (tokKind.equals(Kind.ERROR)) {
+            token.setError(errors.get(tokValue));
+        }
+        return token;
+    }
+
+    // throws, or in recovery mode records the problem and returns its index in errors
+    private int report(String message, int line, int col) throws LexicalException {
+        if (!recover) {
+            throw new LexicalException(message, line, col);
+        }
+        // no stack trace; the message carries the location
+        errors.add(new LexicalException(line + ":" + col + "  " + message, null, false, false));
+        return errors.size() - 1;
+    }
+
+    // makes everything consumed since the token start an ERROR token
+    private void setError(int error, int line, int col) {
+        setToken(Kind.ERROR, markPos, pos - markPos, line, col);
+        tokValue = error;
+    }
+
+    private void setToken(Kind kind, int start, int length, int line, int col) {
+        tokValue = 0;
+        tokKind = kind;
+        tokStart = start;
+        tokLength = length;
+        tokLine = line;
+        tokCol = col;
+    }
+
+    // true if at least n characters remain from pos, refilling the window if needed
+    private boolean available(int n) throws LexicalException {
+        return pos + n <= limit || fill(n);
+    }
+
+    private boolean fill(int n) throws LexicalException {
+        if (exhausted) {
+            return false;
+        }
+        // slide the part of the window still in use to the front
+        if (markPos > 0) {
+            System.arraycopy(input, markPos, input, 0, limit - markPos);
+            pos -= markPos;
+            limit -= markPos;
+            markPos = 0;
+        }
+        // a token longer than the window
+        if (pos + n > input.length) {
+            input = Arrays.copyOf(input, Math.max(input.length * 2, pos + n));
+        }
+        try {
+            while (pos + n > limit) {
+                int read = reader.read(input, limit, input.length - limit);
+                if (read < 0) {
+                    exhausted = true;
+                    return false;
+                }
+                limit += read;
+            }
+        }
+        catch (IOException ex) {
+            throw new LexicalException("Could not read input", ex);
+        }
+        return true;
+    }
+
+    // scans the next token into the tok* fields without allocating it
+    private void scanToken() throws LexicalException {
         // remove any spaces and comments
         boolean found = true;
         while (found) {
             found = handleWhitespace();
             found = handleComments() || found;
         }
+        markPos = pos;
         // check for end of input
-        if (pos >= input.length) {
-            return new Token(Kind.EOF, new char[]{}, line, col);
+        if (!available(1)) {
+            setToken(Kind.EOF, pos, 0, line, col);
+            return;
         }
         // numbers
-        if (Character.isDigit(input[pos])) {
-            int startPos = pos;
+        if (isDigit(input[pos])) {
             int startCol = col;
+            // value is accumulated while scanning, checking for overflow as we go
+            int value = 0;
+            boolean tooLarge = false;
             boolean zeroStart = false;
             if (input[pos] == '0') {
                 zeroStart = true;
                 advance();
             }
-            while (pos != input.length && Character.isDigit(input[pos]) && !zeroStart) {
+            while (!zeroStart && available(1) && isDigit(input[pos])) {
+                int digit = digitValue(input[pos]);
+                if (value > (Integer.MAX_VALUE - digit) / 10) {
+                    tooLarge = true;
+                }
+                value = value * 10 + digit;
                 advance();
             }
-            // check size
-            try {
-                Integer.parseInt(String.valueOf(Arrays.copyOfRange(input, startPos, pos)));
+            if (tooLarge) {
+                setError(report("Integer too large", line, startCol), line, startCol);
             }
-            catch (Exception ex) {
-                throw new LexicalException("Integer too large", line, startCol);
+            else {
+                setToken(Kind.NUM_LIT, markPos, pos - markPos, line, startCol);
+                tokValue = value;
             }
-            tok = new Token(Kind.NUM_LIT, Arrays.copyOfRange(input, startPos, pos), line, startCol);
         }
         // strings
-        else if (pos + 1 < input.length && input[pos] == '"') {
+        else if (input[pos] == '"' && available(2)) {
             int startCol = col;
             int startLine = line;
-            int startPos = pos;
-            int end = findIndex(input, pos + 1, '"');
-            if (end == -1) {
-                throw new LexicalException("Unterminated string", startLine, startCol);
-            }
-            int slashCount = 0;
+            // validate escapes, track lines and decode in a single pass
+            decoded.setLength(0);
+            int error = -1;
             advance();
-            while (pos < end) {
-                if (input[pos] == '\\') {
-                    if (pos + 1 == end || (input[pos + 1] != 'b' && input[pos + 1] != 't' && input[pos + 1] != 'n'
-                        && input[pos + 1] != 'f' && input[pos + 1] != 'r' && input[pos + 1] != '"'
-                        && input[pos + 1] != '\'' && input[pos + 1] != '\\')) {
-                        if ((slashCount + 1) % 2 != 0) {
-                            throw new LexicalException("Slash followed by invalid character", line, col);
-                        }
-                    }
-                    slashCount++;
+            while (true) {
+                if (!available(1)) {
+                    int unterminated = report("Unterminated string", startLine, startCol);
+                    error = error < 0 ? unterminated : error;
+                    break;
+                }
+                char c = input[pos];
+                if (c == '"') {
                     advance();
+                    break;
                 }
-                else if (input[pos] == '\n') {
-                    slashCount = 0;
+                else if (c == '\\') {
+                    if (!available(2)) {
+                        int unterminated = report("Unterminated string", startLine, startCol);
+                        error = error < 0 ? unterminated : error;
+                        advance();
+                        break;
+                    }
+                    int escaped = Token.escapeValue(input[pos + 1]);
+                    if (escaped < 0) {
+                        int invalid = report("Slash followed by invalid character", line, col);
+                        error = error < 0 ? invalid : error;
+                        // the character after the slash is scanned as part of the string
+                        advance();
+                    }
+                    else {
+                        decoded.append((char) escaped);
+                        advance(2);
+                    }
+                }
+                else if (c == '\n') {
+                    decoded.append(c);
                     newLine();
                 }
                 else {
-                    slashCount = 0;
+                    decoded.append(c);
                     advance();
                 }
             }
+            if (error < 0) {
+                setToken(Kind.STRING_LIT, markPos, pos - markPos, startLine, startCol);
+            }
+            else {
+                setError(error, startLine, startCol);
+            }
+        }
+        // identifiers, keywords and boolean literals
+        else if (isIdentStart(input[pos])) {
+            int startCol = col;
             advance();
-            tok = new Token(Kind.STRING_LIT, Arrays.copyOfRange(input, startPos, pos), startLine, startCol);
-        }
-        // booleans
-        else if (pos + 3 < input.length && input[pos] == 'T'
-                && input[pos + 1] == 'R' && input[pos + 2] == 'U' && input[pos + 3] == 'E'
-                && (pos + 4 == input.length || isReservedEnder(input[pos + 4]))) {
-            tok = new Token(Kind.BOOLEAN_LIT, Arrays.copyOfRange(input, pos, pos + 4), line, col);
-            advance(4);
-        }
-        else if (pos + 4 < input.length && input[pos] == 'F' && input[pos + 1] == 'A'
-                && input[pos + 2] == 'L' && input[pos + 3] == 'S' && input[pos + 4] == 'E'
-                && (pos + 5 == input.length || isReservedEnder(input[pos + 5]))) {
-            tok = new Token(Kind.BOOLEAN_LIT, Arrays.copyOfRange(input, pos, pos + 5), line, col);
-            advance(5);
-        }
-        // keywords
-        else if (pos + 4 < input.length && input[pos] == 'C' && input[pos + 1] == 'O'
-                && input[pos + 2] == 'N' && input[pos + 3] == 'S' && input[pos + 4] == 'T'
-                && (pos + 5 == input.length || isReservedEnder(input[pos + 5]))) {
-            tok = new Token(Kind.KW_CONST, Arrays.copyOfRange(input, pos, pos + 5), line, col);
-            advance(5);
-        }
-        else if (pos + 2 < input.length && input[pos] == 'V' && input[pos + 1] == 'A'
-                && input[pos + 2] == 'R' && (pos + 3 == input.length || isReservedEnder(input[pos + 3]))) {
-            tok = new Token(Kind.KW_VAR, Arrays.copyOfRange(input, pos, pos + 3), line, col);
-            advance(3);
-        }
-        else if (pos + 8 < input.length && input[pos] == 'P' && input[pos + 1] == 'R' && input[pos + 2] == 'O'
-                && input[pos + 3] == 'C' && input[pos + 4] == 'E' && input[pos + 5] == 'D'
-                && input[pos + 6] == 'U' && input[pos + 7] == 'R' && input[pos + 8] == 'E'
-                && (pos + 9 == input.length || isReservedEnder(input[pos + 9]))) {
-            tok = new Token(Kind.KW_PROCEDURE, Arrays.copyOfRange(input, pos, pos + 9), line, col);
-            advance(9);
-        }
-        else if (pos + 3 < input.length && input[pos] == 'C' && input[pos + 1] == 'A'
-                && input[pos + 2] == 'L' && input[pos + 3] == 'L'
-                && (pos + 4 == input.length || isReservedEnder(input[pos + 4]))) {
-            tok = new Token(Kind.KW_CALL, Arrays.copyOfRange(input, pos, pos + 4), line, col);
-            advance(4);
-        }
-        else if (pos + 4 < input.length && input[pos] == 'B' && input[pos + 1] == 'E'
-                && input[pos + 2] == 'G' && input[pos + 3] == 'I' && input[pos + 4] == 'N'
-                && (pos + 5 == input.length || isReservedEnder(input[pos + 5]))) {
-            tok = new Token(Kind.KW_BEGIN, Arrays.copyOfRange(input, pos, pos + 5), line, col);
-            advance(5);
-        }
-        else if (pos + 2 < input.length && input[pos] == 'E' && input[pos + 1] == 'N'
-                && input[pos + 2] == 'D' && (pos + 3 == input.length || isReservedEnder(input[pos + 3]))) {
-            tok = new Token(Kind.KW_END, Arrays.copyOfRange(input, pos, pos + 3), line, col);
-            advance(3);
-        }
-        else if (pos + 1 < input.length && input[pos] == 'I' && input[pos + 1] == 'F'
-                && (pos + 2 == input.length || isReservedEnder(input[pos + 2]))) {
-            tok = new Token(Kind.KW_IF, Arrays.copyOfRange(input, pos, pos + 2), line, col);
-            advance(2);
-        }
-        else if (pos + 3 < input.length && input[pos] == 'T' && input[pos + 1] == 'H'
-                && input[pos + 2] == 'E' && input[pos + 3] == 'N'
-                && (pos + 4 == input.length || isReservedEnder(input[pos + 4]))) {
-            tok = new Token(Kind.KW_THEN, Arrays.copyOfRange(input, pos, pos + 4), line, col);
-            advance(4);
-        }
-        else if (pos + 4 < input.length && input[pos] == 'W' && input[pos + 1] == 'H'
-                && input[pos + 2] == 'I' && input[pos + 3] == 'L' && input[pos + 4] == 'E'
-                && (pos + 5 == input.length || isReservedEnder(input[pos + 5]))) {
-            tok = new Token(Kind.KW_WHILE, Arrays.copyOfRange(input, pos, pos + 5), line, col);
-            advance(5);
-        }
-        else if (pos + 1 < input.length && input[pos] == 'D' && input[pos + 1] == 'O'
-                && (pos + 2 == input.length || isReservedEnder(input[pos + 2]))) {
-            tok = new Token(Kind.KW_DO, Arrays.copyOfRange(input, pos, pos + 2), line, col);
-            advance(2);
+            while (available(1) && isIdentPart(input[pos])) {
+                advance();
+            }
+            Kind kind = classify(markPos, pos - markPos);
+            setToken(kind, markPos, pos - markPos, line, startCol);
+            if (kind == Kind.IDENT) {
+                tokValue = symbols.intern(input, markPos, pos - markPos);
+            }
+        }
+        // operators and separators
+        else if (input[pos] < 128 && OPERATORS[input[pos]] != null) {
+            Kind kind = OPERATORS[input[pos]];
+            if ((kind == Kind.LT || kind == Kind.GT) && available(2) && input[pos + 1] == '=') {
+                setToken(kind == Kind.LT ? Kind.LE : Kind.GE, pos, 2, line, col);
+                advance(2);
+            }
+            else {
+                setToken(kind, pos, 1, line, col);
+                advance();
+            }
+        }
+        else if (input[pos] == ':') {
+            if (!available(2) || input[pos + 1] != '=') {
+                int error = report("Colons must be follow by =", line, col);
+                int startCol = col;
+                advance();
+                setError(error, line, startCol);
+            }
+            else {
+                setToken(Kind.ASSIGN, pos, 2, line, col);
+                advance(2);
+            }
         }
         else {
-            switch (input[pos]) {
-                case '.':
-                    tok = new Token(Kind.DOT, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case ',':
-                    tok = new Token(Kind.COMMA, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case ';':
-                    tok = new Token(Kind.SEMI, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '(':
-                    tok = new Token(Kind.LPAREN, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case ')':
-                    tok = new Token(Kind.RPAREN, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '+':
-                    tok = new Token(Kind.PLUS, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '-':
-                    tok = new Token(Kind.MINUS, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '*':
-                    tok = new Token(Kind.TIMES, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '/':
-                    tok = new Token(Kind.DIV, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '%':
-                    tok = new Token(Kind.MOD, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '?':
-                    tok = new Token(Kind.QUESTION, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '!':
-                    tok = new Token(Kind.BANG, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case ':':
-                    if (input[pos + 1] != '=') {
-                        throw new LexicalException("Colons must be follow by =", line, col);
-                    }
-                    tok = new Token(Kind.ASSIGN, Arrays.copyOfRange(input, pos, pos + 2), line, col);
-                    advance(2);
-                    break;
-                case '=':
-                    tok = new Token(Kind.EQ, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '#':
-                    tok = new Token(Kind.NEQ, new char[]{input[pos]}, line, col);
-                    advance();
-                    break;
-                case '<':
-                    if (pos != input.length - 1 && input[pos + 1] == '=') {
-                        tok = new Token(Kind.LE, Arrays.copyOfRange(input, pos, pos + 2), line, col);
-                        advance(2);
-                    } else {
-                        tok = new Token(Kind.LT, new char[]{input[pos]}, line, col);
-                        advance();
-                    }
-                    break;
-                case '>':
-                    if (pos != input.length - 1 && input[pos + 1] == '=') {
-                        tok = new Token(Kind.GE, Arrays.copyOfRange(input, pos, pos + 2), line, col);
-                        advance(2);
-                    } else {
-                        tok = new Token(Kind.GT, new char[]{input[pos]}, line, col);
-                        advance();
-                    }
-                    break;
-                // identifiers
-                default:
-                    if (!Character.isAlphabetic(input[pos]) && input[pos] != '_' && input[pos] != '$') {
-                        throw new LexicalException("Invalid identifier", line, col);
-                    }
-                    int startPos = pos;
-                    int startCol = col;
-                    while (pos < input.length && !isWhitespace(input[pos]) && (Character.isAlphabetic(input[pos])
-                            || Character.isDigit(input[pos]) || input[pos] == '_' || input[pos] == '$')) {
-                        advance();
-                    }
-                    tok = new Token(Kind.IDENT, Arrays.copyOfRange(input, startPos, pos), line, startCol);
-                    break;
-
+            int error = report("Invalid identifier", line, col);
+            int startCol = col;
+            advance();
+            setError(error, line, startCol);
+        }
+    }
+    // reserved words live in a table indexed by a hash that is perfect for this set
+    private Kind classify(int start, int length) {
+        if (length < 2 || length > 9) {
+            return Kind.IDENT;
+        }
+        int h = keywordHash(input[start], input[start + length - 1], length);
+        char[] reserved = RESERVED_TEXT[h];
+        if (reserved == null || reserved.length != length) {
+            return Kind.IDENT;
+        }
+        for (int i = 0; i < length; i++) {
+            if (input[start + i] != reserved[i]) {
+                return Kind.IDENT;
             }
         }
-        return tok;
+        return RESERVED_KINDS[h];
     }
 
-    public IToken peek() throws LexicalException {
-        // record current positions
-        int tempPos = pos;
-        int tempLine = line;
-        int tempCol = col;
-        IToken tok = next();
-        // reset positions
-        pos = tempPos;
-        line = tempLine;
-        col = tempCol;
-        return tok;
+    private static int keywordHash(char first, char last, int length) {
+        return (2 * first + 6 * last + length) & 15;
+    }
+
+    private static void reserve(String text, Kind kind) {
+        int h = keywordHash(text.charAt(0), text.charAt(text.length() - 1), text.length());
+        if (RESERVED_TEXT[h] != null) {
+            throw new IllegalStateException("keyword hash collision: " + text);
+        }
+        RESERVED_TEXT[h] = text.toCharArray();
+        RESERVED_KINDS[h] = kind;
+    }
+
+    private static boolean isDigit(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & DIGIT) != 0 : Character.isDigit(c);
+    }
+
+    private static int digitValue(char c) {
+        return c < 128 ? c - '0' : Character.digit(c, 10);
+    }
+
+    private static boolean isIdentStart(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & LETTER) != 0 : Character.isAlphabetic(c);
+    }
+
+    private static boolean isIdentPart(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & (LETTER | DIGIT)) != 0 : Character.isAlphabetic(c) || Character.isDigit(c);
     }
 
     private void advance() {
@@ -287,69 +555,56 @@ public class Lexer implements ILexer{
         this.line++;
     }
 
-    private boolean contains(char[] arr, char c) {
-        for (int element : arr) {
-            if (element == c) {
-                return true;
+    private boolean handleWhitespace() throws LexicalException {
+        boolean found = false;
+        markPos = pos;
+        while (available(1)) {
+            // skip a run of spaces and tabs within the window, then account for it at once
+            int runStart = pos;
+            int end = limit;
+            char c = input[pos];
+            while ((c == ' ' || c == '\t') && ++pos < end) {
+                c = input[pos];
             }
-        }
-        return false;
-    }
-
-    private int findIndex(char[] arr, int i, char c) {
-        for (; i < arr.length; i++) {
-            if (arr[i] == c && (i > 0 ? arr[i - 1] != '\\' : true)) {
-                return i;
+            col += pos - runStart;
+            found = found || pos > runStart;
+            markPos = pos;
+            if (pos == end) {
+                continue;
             }
-        }
-        return -1;
-    }
-
-    private boolean isWhitespace(char c) {
-        if (c == ' ' || c == '\t' || c == '\r' || c == '\n')
-            return true;
-        return false;
-    }
-
-    private boolean isReservedEnder(char c) {
-        // any of these things extends it into an identifier
-        if (Character.isAlphabetic(c) || Character.isDigit(c) || c == '$' || c == '_') {
-            return false;
-        }
-        return true;
-    }
-
-    private boolean handleWhitespace() {
-        boolean found = false;
-        while (pos != input.length
-                && (input[pos] == '\t' || input[pos] == '\r' || input[pos] == '\n' || input[pos] == ' ')) {
-            found = true;
-            switch (input[pos]) {
-                case '\t':
-                    pos++; col++;
-                    break;
-                case '\n':
-                    pos++; col = 1; line++;
-                    break;
-                case '\r':
-                    pos += 2; col += 2;
-                    break;
-                case ' ':
+            if (c == '\n') {
+                pos++; col = 1; line++;
+            }
+            else if (c == '\r') {
+                // \r\n counts as two columns on the same line
+                pos++; col++;
+                if (available(1) && input[pos] == '\n') {
                     pos++; col++;
-                    break;
+                }
+            }
+            else {
+                break;
             }
+            found = true;
+            markPos = pos;
         }
         return found;
     }
 
-    private boolean handleComments() {
-        boolean found = false;
-        if (pos < input.length && input[pos] == '/' && pos + 1 != input.length && input[pos + 1] == '/') {
-            found = true;
-            while (pos != input.length && input[pos] != '\r' && input[pos] != '\n') {
-                advance();
-            }
+    private boolean handleComments() throws LexicalException {
+        if (!available(2) || input[pos] != '/' || input[pos + 1] != '/') {
+            return false;
         }
-        return found;
+        // jump to the line end a window at a time; the comment never spans lines
+        do {
+            int runStart = pos;
+            int end = limit;
+            while (pos < end && input[pos] != '\n' && input[pos] != '\r') {
+                pos++;
+            }
+            col += pos - runStart;
+            markPos = pos;
+        } while (pos == limit && available(1));
+        return true;
     }
 }
@@ -6,7 +6,14 @@ package edu.ufl.cise.plpfa22;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
@@ -907,5 +914,373 @@ class LexerTest {
         this.checkEOF(lexer.next());
         this.checkEOF(lexer.next());
     }
-}
 
+    @Test
+    public void testPeekAhead() throws LexicalException {
+        String input = """
+				a := b + 1
+				""";
+        show(input);
+        ILexer lexer = getLexer(input);
+        this.checkToken(lexer.peek(2), Kind.IDENT, 1, 6);
+        this.checkToken(lexer.peek(4), Kind.NUM_LIT, 1, 10);
+        this.checkEOF(lexer.peek(5));
+        this.checkIdent(lexer.next(), "a", 1, 1);
+        this.checkToken(lexer.next(), Kind.ASSIGN, 1, 3);
+        this.checkToken(lexer.peek(1), Kind.PLUS, 1, 8);
+        this.checkIdent(lexer.next(), "b", 1, 6);
+        this.checkToken(lexer.next(), Kind.PLUS, 1, 8);
+        this.checkInt(lexer.next(), 1, 1, 10);
+        this.checkEOF(lexer.next());
+    }
+
+    @Test
+    public void testBufferedLexer() throws LexicalException {
+        String input = """
+				VAR x;
+				""";
+        show(input);
+        BufferedLexer lexer = (BufferedLexer) CompilerComponentFactory.getBufferedLexer(input);
+        assertEquals(4, lexer.size());
+        this.checkToken(lexer.peek(1), Kind.IDENT, 1, 5);
+        this.checkToken(lexer.next(), Kind.KW_VAR, 1, 1);
+        this.checkIdent(lexer.next(), "x", 1, 5);
+        this.checkToken(lexer.next(), Kind.SEMI, 1, 6);
+        this.checkEOF(lexer.next());
+        this.checkEOF(lexer.peek(3));
+        lexer.reset();
+        this.checkToken(lexer.next(), Kind.KW_VAR, 1, 1);
+    }
+
+    @Test
+    public void testTokenStream() throws LexicalException {
+        String input = """
+				x := 42;
+				""";
+        show(input);
+        TokenStream stream = TokenStream.of(getLexer(input));
+        assertEquals(5, stream.size());
+        assertEquals(Kind.ASSIGN, stream.getKind(1));
+        assertEquals(2, stream.getOffset(1));
+        assertEquals(2, stream.getLength(1));
+        TokenStream.Cursor cursor = stream.cursor();
+        this.checkIdent(cursor.token(), "x", 1, 1);
+        cursor.advance();
+        cursor.advance();
+        assertEquals(Kind.NUM_LIT, cursor.kind());
+        assertEquals(Kind.SEMI, cursor.kind(1));
+        this.checkInt(cursor.token(), 42, 1, 6);
+        cursor.advance();
+        cursor.advance();
+        this.checkEOF(cursor.token());
+        cursor.advance();
+        this.checkEOF(cursor.token());
+    }
+
+    @Test
+    public void testIntBoundary() throws LexicalException {
+        String input = """
+				2147483647 0 2147483648
+				""";
+        show(input);
+        ILexer lexer = getLexer(input);
+        this.checkInt(lexer.next(), Integer.MAX_VALUE, 1, 1);
+        this.checkInt(lexer.next(), 0, 1, 12);
+        assertThrows(LexicalException.class, () -> {
+            lexer.next();
+        });
+    }
+
+    @Test
+    public void testEscapedBackslashBeforeQuote() throws LexicalException {
+        String input = "\"a\\\\\" \"two\nlines\" b";
+        show(input);
+        ILexer lexer = getLexer(input);
+        this.checkString(lexer.next(), "\"a\\\\\"", "a\\", 1, 1);
+        this.checkString(lexer.next(), "\"two\nlines\"", "two\nlines", 1, 7);
+        this.checkIdent(lexer.next(), "b", 2, 8);
+        this.checkEOF(lexer.next());
+    }
+
+    @Test
+    public void testStreamingLexer() throws LexicalException {
+        String input = """
+				// a comment longer than the window
+				VAR abcdefghijklmnop, y;
+				x := "a\\nb" >= 12345
+				""";
+        show(input);
+        // a tiny window forces refills inside comments, identifiers and strings
+        ILexer lexer = new Lexer(new StringReader(input), 4);
+        this.checkToken(lexer.next(), Kind.KW_VAR, 2, 1);
+        this.checkIdent(lexer.next(), "abcdefghijklmnop", 2, 5);
+        this.checkToken(lexer.next(), Kind.COMMA, 2, 21);
+        this.checkIdent(lexer.next(), "y", 2, 23);
+        this.checkToken(lexer.next(), Kind.SEMI, 2, 24);
+        this.checkIdent(lexer.next(), "x", 3, 1);
+        this.checkToken(lexer.next(), Kind.ASSIGN, 3, 3);
+        this.checkString(lexer.next(), "a\nb", 3, 6);
+        this.checkToken(lexer.next(), Kind.GE, 3, 13);
+        this.checkInt(lexer.next(), 12345, 3, 16);
+        this.checkEOF(lexer.next());
+        TokenStream stream = new Lexer(new StringReader(input), 4).tokenize();
+        assertEquals(11, stream.size());
+        this.checkIdent(stream.getToken(1), "abcdefghijklmnop", 2, 5);
+    }
+
+    @Test
+    public void testMappedFile() throws LexicalException, IOException {
+        String input = """
+				CONST n = 3;
+				! "done"
+				""";
+        show(input);
+        Path file = Files.createTempFile("lexer", ".pl0");
+        try {
+            Files.writeString(file, input);
+            ILexer lexer = CompilerComponentFactory.getLexer(file);
+            this.checkToken(lexer.next(), Kind.KW_CONST, 1, 1);
+            this.checkIdent(lexer.next(), "n", 1, 7);
+            this.checkToken(lexer.next(), Kind.EQ, 1, 9);
+            this.checkInt(lexer.next(), 3, 1, 11);
+            this.checkToken(lexer.next(), Kind.SEMI, 1, 12);
+            this.checkToken(lexer.next(), Kind.BANG, 2, 1);
+            this.checkString(lexer.next(), "done", 2, 3);
+            this.checkEOF(lexer.next());
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMappedFileNotAscii() throws LexicalException, IOException {
+        String input = """
+				// café
+				! "naïve → ok"; x
+				""";
+        show(input);
+        Path file = Files.createTempFile("lexer", ".pl0");
+        try {
+            // non-ASCII bytes are decoded as UTF-8, not widened one byte per char
+            Files.writeString(file, input, StandardCharsets.UTF_8);
+            ILexer lexer = CompilerComponentFactory.getLexer(file);
+            this.checkToken(lexer.next(), Kind.BANG, 2, 1);
+            this.checkString(lexer.next(), "naïve → ok", 2, 3);
+            this.checkToken(lexer.next(), Kind.SEMI, 2, 15);
+            this.checkIdent(lexer.next(), "x", 2, 17);
+            this.checkEOF(lexer.next());
+            // a letter outside ASCII is one char of an identifier, not two
+            Files.writeString(file, "x := café + 1", StandardCharsets.UTF_8);
+            lexer = CompilerComponentFactory.getLexer(file);
+            this.checkIdent(lexer.next(), "x", 1, 1);
+            this.checkToken(lexer.next(), Kind.ASSIGN, 1, 3);
+            this.checkIdent(lexer.next(), "café", 1, 6);
+            this.checkToken(lexer.next(), Kind.PLUS, 1, 11);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testParallelLexer() throws LexicalException {
+        String input = """
+				VAR a, b; // a "comment
+				PROCEDURE p;
+				  ! "two\r\nlines
+				and more"
+				;
+				BEGIN a := 1; b := a >= 10 END .
+				""";
+        show(input);
+        char[] source = input.toCharArray();
+        TokenStream expected = new Lexer(input).tokenize();
+        // tiny chunks split at every safe line break
+        for (int chunk = 1; chunk < 30; chunk++) {
+            TokenStream actual = ParallelLexer.tokenize(source, chunk);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getKind(i), actual.getKind(i));
+                assertEquals(expected.getOffset(i), actual.getOffset(i));
+                assertEquals(expected.getLine(i), actual.getLine(i));
+                assertEquals(expected.getColumn(i), actual.getColumn(i));
+            }
+        }
+        ILexer lexer = CompilerComponentFactory.getParallelLexer(input);
+        this.checkToken(lexer.next(), Kind.KW_VAR, 1, 1);
+    }
+
+    @Test
+    public void testParallelLexerError() throws LexicalException {
+        String input = """
+				a := 1;
+				b := @;
+				c := 99999999999;
+				""";
+        show(input);
+        LexicalException e = assertThrows(LexicalException.class, () -> {
+            ParallelLexer.tokenize(input.toCharArray(), 1);
+        });
+        show(e);
+        assertTrue(e.getMessage().startsWith("2:6"));
+    }
+
+    @Test
+    public void testWhitespaceRuns() throws LexicalException {
+        String input = "\t\t    x  // comment\r\n        \t// another\n\n   \r  y\t\t//";
+        show(input);
+        // the same positions whether the runs sit in one array or cross window refills
+        for (ILexer lexer : new ILexer[] { getLexer(input), new Lexer(new StringReader(input), 3) }) {
+            this.checkIdent(lexer.next(), "x", 1, 7);
+            this.checkIdent(lexer.next(), "y", 3, 7);
+            this.checkEOF(lexer.next());
+        }
+    }
+
+    @Test
+    public void testSymbols() throws LexicalException {
+        String input = """
+				abc x abc
+				x1 x
+				""";
+        show(input);
+        ILexer lexer = getLexer(input);
+        IToken abc = lexer.next();
+        IToken x = lexer.next();
+        assertEquals(abc.getSymbol(), lexer.next().getSymbol());
+        assertNotEquals(x.getSymbol(), lexer.next().getSymbol());
+        assertEquals(x.getSymbol(), lexer.next().getSymbol());
+        TokenStream stream = new Lexer(input).tokenize();
+        assertEquals("abc", stream.getSymbols().name(stream.getValue(0)));
+        assertEquals(3, stream.getSymbols().size());
+        // each lexer starts a pool of its own
+        assertEquals(0, new Lexer(new StringReader(" x"), 2).next().getSymbol());
+        SymbolPool pool = new SymbolPool();
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(i, pool.intern("v" + i));
+        }
+        assertEquals(500, pool.intern("v500"));
+        assertEquals("v2500", pool.name(2500));
+        assertEquals(3000, pool.size());
+    }
+
+    @Test
+    public void testSymbolPoolConcurrent() throws Exception {
+        SymbolPool pool = new SymbolPool();
+        int threads = 8;
+        int names = 5000;
+        int[][] ids = new int[threads][names];
+        String[][] seen = new String[threads][names];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int[] mine = ids[t];
+            String[] read = seen[t];
+            int offset = t * 617;
+            workers.add(new Thread(() -> {
+                // every thread interns the same names, starting at different places
+                for (int i = 0; i < names; i++) {
+                    int n = (i + offset) % names;
+                    mine[n] = pool.intern("n" + n);
+                    read[n] = pool.name(mine[n]);
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(names, pool.size());
+        for (int n = 0; n < names; n++) {
+            for (int t = 1; t < threads; t++) {
+                assertEquals(ids[0][n], ids[t][n]);
+            }
+            for (int t = 0; t < threads; t++) {
+                assertEquals("n" + n, seen[t][n]);
+            }
+            assertEquals("n" + n, pool.name(ids[0][n]));
+        }
+    }
+
+    @Test
+    public void testRelex() throws LexicalException {
+        String input = """
+				VAR a, b;
+				BEGIN
+				  a := 1;
+				  ! "a string";
+				  b := a + 2
+				END .
+				""";
+        show(input);
+        TokenStream previous = new Lexer(input).tokenize();
+        // {offset, removed, inserted}: rename, new line, comment out, edit in a string, delete a line
+        Object[][] edits = {
+                { 4, 1, "alpha" },
+                { 16, 0, "\n\n" },
+                { 18, 0, "// " },
+                { 31, 3, "b\nc" },
+                { 16, 10, "" },
+                { input.length(), 0, "x" },
+                { 0, 0, "" },
+        };
+        for (Object[] edit : edits) {
+            int offset = (Integer) edit[0];
+            int removed = (Integer) edit[1];
+            String inserted = (String) edit[2];
+            String edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+            TokenStream expected = new Lexer(edited).tokenize();
+            TokenStream actual = Lexer.relex(previous, offset, removed, inserted);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getKind(i), actual.getKind(i));
+                assertEquals(expected.getOffset(i), actual.getOffset(i));
+                assertEquals(expected.getLength(i), actual.getLength(i));
+                assertEquals(expected.getLine(i), actual.getLine(i));
+                assertEquals(expected.getColumn(i), actual.getColumn(i));
+                // the re-lexed stream keeps interning into the old pool, so compare names
+                if (expected.getKind(i) == Kind.IDENT) {
+                    assertEquals(expected.getSymbols().name(expected.getValue(i)), actual.getSymbols().name(actual.getValue(i)));
+                }
+                else {
+                    assertEquals(expected.getValue(i), actual.getValue(i));
+                }
+            }
+            assertSame(previous.getSymbols(), actual.getSymbols());
+        }
+    }
+
+    @Test
+    public void testRecovery() throws LexicalException {
+        String input = """
+				x := @ 99999999999;
+				y : 3 "bad\\q" z
+				"open
+				""";
+        show(input);
+        ILexer lexer = CompilerComponentFactory.getRecoveringLexer(input);
+        this.checkIdent(lexer.next(), "x", 1, 1);
+        this.checkToken(lexer.next(), Kind.ASSIGN, 1, 3);
+        IToken error = lexer.next();
+        this.checkToken(error, Kind.ERROR, 1, 6);
+        assertEquals("1:6  Invalid identifier", error.getError().getMessage());
+        assertEquals(0, error.getError().getStackTrace().length);
+        this.checkToken(lexer.next(), Kind.ERROR, 1, 8);
+        this.checkToken(lexer.next(), Kind.SEMI, 1, 19);
+        this.checkIdent(lexer.next(), "y", 2, 1);
+        this.checkToken(lexer.next(), Kind.ERROR, 2, 3);
+        this.checkInt(lexer.next(), 3, 2, 5);
+        error = lexer.next();
+        this.checkToken(error, Kind.ERROR, 2, 7);
+        assertEquals("\"bad\\q\"", String.valueOf(error.getText()));
+        this.checkIdent(lexer.next(), "z", 2, 15);
+        this.checkToken(lexer.next(), Kind.ERROR, 3, 1);
+        this.checkEOF(lexer.next());
+        assertEquals(5, ((Lexer) lexer).getErrors().size());
+        TokenStream stream = ((Lexer) CompilerComponentFactory.getRecoveringLexer(input)).tokenize();
+        assertEquals(5, stream.getErrors().size());
+        assertEquals("2:11  Slash followed by invalid character", stream.getToken(8).getError().getMessage());
+    }
+}
@@ -0,0 +1,60 @@
+package edu.ufl.cise.plpfa22;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads a memory-mapped source file one byte per char. PL/0 sources are ASCII, so the
+// bytes are widened straight into the lexer's window without going through a charset decoder.
+// That is only right for ASCII; callers check isAscii and decode anything else as UTF-8.
+class MappedSourceReader extends Reader {
+
+    private MappedByteBuffer buffer;
+
+    MappedSourceReader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // whether every byte is below 0x80, checked eight at a time
+    boolean isAscii() {
+        int i = buffer.position();
+        int limit = buffer.limit();
+        for (; i + 8 <= limit; i += 8) {
+            if ((buffer.getLong(i) & 0x8080808080808080L) != 0) {
+                return false;
+            }
+        }
+        for (; i < limit; i++) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int count = Math.min(len, buffer.remaining());
+        if (count == 0) {
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            cbuf[off + i] = (char) (buffer.get() & 0xff);
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        buffer = null;
+    }
+}
@@ -0,0 +1,103 @@
+package edu.ufl.cise.plpfa22;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Lexes a large source in chunks on the common fork-join pool. Chunks are split just after
+// a line break that is outside any string literal or comment, so no token crosses a split.
+public class ParallelLexer {
+
+    private static final int MIN_CHUNK = 1 << 16;
+
+    public static TokenStream tokenize(String input) throws LexicalException {
+        char[] source = input.toCharArray();
+        int chunk = Math.max(MIN_CHUNK, source.length / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        return tokenize(source, chunk);
+    }
+
+    static TokenStream tokenize(char[] source, int chunkSize) throws LexicalException {
+        List<int[]> splits = findSplits(source, chunkSize);
+        // one pool for every chunk, so a name gets the same id wherever it is lexed
+        SymbolPool symbols = new SymbolPool();
+        if (splits.size() == 1) {
+            return new Lexer(source, 0, source.length, 1, 1, symbols).tokenize();
+        }
+        int chunks = splits.size();
+        TokenStream[] streams = new TokenStream[chunks];
+        LexicalException[] errors = new LexicalException[chunks];
+        ForkJoinPool.commonPool().submit(() -> IntStream.range(0, chunks).parallel().forEach(i -> {
+            int start = splits.get(i)[0];
+            int end = i + 1 < chunks ? splits.get(i + 1)[0] : source.length;
+            try {
+                streams[i] = new Lexer(source, start, end, splits.get(i)[1], 1, symbols).tokenize();
+            }
+            catch (LexicalException ex) {
+                errors[i] = ex;
+            }
+        })).join();
+        // the error a sequential lexer would have reported first
+        for (LexicalException error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+        // drop the EOF of every chunk but the last
+        TokenStream stream = new TokenStream(source, symbols);
+        for (int i = 0; i < chunks; i++) {
+            stream.addAll(streams[i], i + 1 < chunks ? streams[i].size() - 1 : streams[i].size());
+        }
+        return stream;
+    }
+
+    // {offset, line} of each chunk start; the first chunk starts at {0, 1}
+    static List<int[]> findSplits(char[] source, int chunkSize) {
+        List<int[]> splits = new ArrayList<>();
+        splits.add(new int[] { 0, 1 });
+        boolean inString = false;
+        boolean inComment = false;
+        int line = 1;
+        int next = chunkSize;
+        for (int i = 0; i < source.length; i++) {
+            char c = source[i];
+            if (inString) {
+                // mirrors the lexer: escapes skip a char, every \n starts a line
+                if (c == '\\') {
+                    i++;
+                    if (i < source.length && source[i] == '\n') {
+                        line++;
+                    }
+                }
+                else if (c == '"') {
+                    inString = false;
+                }
+                else if (c == '\n') {
+                    line++;
+                }
+            }
+            else if (inComment) {
+                if (c == '\r' || c == '\n') {
+                    inComment = false;
+                    i--;
+                }
+            }
+            else if (c == '"') {
+                inString = true;
+            }
+            else if (c == '/' && i + 1 < source.length && source[i + 1] == '/') {
+                inComment = true;
+                i++;
+            }
+            // a \n after \r does not start a line outside strings
+            else if (c == '\n' && (i == 0 || source[i - 1] != '\r')) {
+                line++;
+                if (i + 1 >= next && i + 1 < source.length) {
+                    splits.add(new int[] { i + 1, line });
+                    next = i + 1 + chunkSize;
+                }
+            }
+        }
+        return splits;
+    }
+}
@@ -3,104 +3,250 @@ package edu.ufl.cise.plpfa22;
 import edu.ufl.cise.plpfa22.ast.*;
 import edu.ufl.cise.plpfa22.IToken.Kind;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Parser implements IParser{
 
+    // 0 for tokens that are not binary operators; all operators are left associative
+    private static final int[] BINDING_POWER = new int[Kind.values().length];
+
+    static {
+        for (Kind kind : new Kind[] { Kind.LT, Kind.GT, Kind.EQ, Kind.NEQ, Kind.LE, Kind.GE }) {
+            BINDING_POWER[kind.ordinal()] = 1;
+        }
+        for (Kind kind : new Kind[] { Kind.PLUS, Kind.MINUS }) {
+            BINDING_POWER[kind.ordinal()] = 2;
+        }
+        for (Kind kind : new Kind[] { Kind.TIMES, Kind.DIV, Kind.MOD }) {
+            BINDING_POWER[kind.ordinal()] = 3;
+        }
+    }
+
+    // tokens a recovering parser skips ahead to after an error
+    private static final boolean[] SYNC = new boolean[Kind.values().length];
+
+    static {
+        for (Kind kind : new Kind[] { Kind.SEMI, Kind.KW_END, Kind.DOT, Kind.KW_CONST, Kind.KW_VAR,
+                Kind.KW_PROCEDURE, Kind.EOF }) {
+            SYNC[kind.ordinal()] = true;
+        }
+    }
+
     private ILexer lexer;
-    private List<IToken> tokens;
-    private int index;
+    private TokenCursor tokens;
+    // pull tokens from the lexer as they are needed instead of lexing everything first
+    private boolean lazy;
+    // in recovery mode syntax errors are collected and parsing carries on
+    private boolean recover;
+    private List<SyntaxException> errors;
+    private IToken lastError;
+    // parse the outermost procedures concurrently before the rest of the program
+    private boolean parallel;
+    private TokenStream.Cursor indexed;
+    private Map<Integer, ProcDec> preparsed;
+    private Map<Integer, Integer> preparsedEnds;
 
     public Parser(ILexer lexer) {
+        this(lexer, false);
+    }
+
+    public Parser(ILexer lexer, boolean lazy) {
         this.lexer = lexer;
-        this.tokens = new ArrayList<>();
-        this.index = 0;
+        this.lazy = lazy;
+        this.recover = false;
+        this.errors = new ArrayList<>();
+    }
+
+    public void setRecovery(boolean recover) {
+        this.recover = recover;
+    }
+
+    public List<SyntaxException> getErrors() {
+        return errors;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
     }
+
+    // always on a large stack, so deep nesting parses however the parser was made
     public ASTNode parse() throws PLPException {
-        // lex
-        while (!lexer.peek().getKind().equals(Kind.EOF))
-            tokens.add(lexer.next());
+        return LargeStack.run(this::parseTokens);
+    }
+
+    private ASTNode parseTokens() throws PLPException {
+        if (lazy) {
+            tokens = new LazyTokenCursor(lexer);
+        }
+        else {
+            // lex into a packed stream; tokens are only materialized when the AST keeps them
+            TokenStream stream = TokenStream.of(lexer);
+            indexed = stream.cursor();
+            tokens = indexed;
+            if (parallel && !recover) {
+                parseProcedures(stream);
+            }
+        }
         return parseProgram();
     }
 
-    public Program parseProgram() throws SyntaxException {
-        IToken first = peek();
+    // leaves preparsed null if the spans cannot be found or any procedure fails; the sequential parse then reports the error
+    private void parseProcedures(TokenStream stream) {
+        List<int[]> spans = ProcedureSpans.find(stream);
+        if (spans == null || spans.size() < 2) {
+            return;
+        }
+        // on large-stack threads like the rest of the parse, so deep bodies parse the same way
+        List<LargeStack.Task<ProcDec>> tasks = new ArrayList<>();
+        for (int[] span : spans) {
+            tasks.add(() -> {
+                Parser parser = new Parser(null);
+                parser.indexed = stream.cursor();
+                parser.tokens = parser.indexed;
+                parser.indexed.seek(span[0]);
+                ProcDec dec = parser.parseProcDec();
+                if (parser.indexed.index() != span[1]) {
+                    throw new SyntaxException("Procedure does not end where expected.");
+                }
+                return dec;
+            });
+        }
+        List<ProcDec> decs;
+        try {
+            decs = LargeStack.all(tasks);
+        }
+        catch (PLPException | RuntimeException e) {
+            return;
+        }
+        preparsed = new HashMap<>();
+        preparsedEnds = new HashMap<>();
+        for (int i = 0; i < decs.size(); i++) {
+            preparsed.put(spans.get(i)[0], decs.get(i));
+            preparsedEnds.put(spans.get(i)[0], spans.get(i)[1]);
+        }
+    }
+
+    public Program parseProgram() throws PLPException {
+        IToken first = tokens.token();
         Block block = parseBlock();
-        match(Kind.DOT);
-        if (index < tokens.size()) {
-            throw new SyntaxException("Program cannot continue after dot.");
+        try {
+            skip(Kind.DOT);
+            if (!tokens.kind().equals(Kind.EOF)) {
+                throw new SyntaxException("Program cannot continue after dot.");
+            }
+        }
+        catch (SyntaxException e) {
+            recover(e);
         }
         return new Program(first, block);
     }
 
-    public Block parseBlock() throws SyntaxException {
+    public Block parseBlock() throws PLPException {
         List<ConstDec> consts = new ArrayList<>();
         List<VarDec> vars = new ArrayList<>();
         List<ProcDec> procedures = new ArrayList<>();
-        IToken first = peek();
-        while (isKind(Kind.KW_CONST)) {
-            consts.addAll(parseConstDec());
+        IToken first = tokens.token();
+        // at EOF these loops end and parseStmt reports it
+        while (tokens.kind().equals(Kind.KW_CONST)) {
+            try {
+                consts.addAll(parseConstDec());
+            }
+            catch (SyntaxException e) {
+                recoverDeclaration(e);
+            }
         }
-        while (isKind(Kind.KW_VAR)) {
-            vars.addAll(parseVarDec());
+        while (tokens.kind().equals(Kind.KW_VAR)) {
+            try {
+                vars.addAll(parseVarDec());
+            }
+            catch (SyntaxException e) {
+                recoverDeclaration(e);
+            }
         }
-        while (isKind(Kind.KW_PROCEDURE)) {
-            procedures.add(parseProcDec());
+        while (tokens.kind().equals(Kind.KW_PROCEDURE)) {
+            try {
+                procedures.add(parseProcDec());
+            }
+            catch (SyntaxException e) {
+                recoverDeclaration(e);
+            }
         }
         Statement stmt = parseStmt();
         return new Block(first, consts, vars, procedures, stmt);
     }
 
-    public List<ConstDec> parseConstDec() throws SyntaxException {
+    public List<ConstDec> parseConstDec() throws PLPException {
         List<ConstDec> consts = new ArrayList<>();
         // discard CONST
         IToken first = match(Kind.KW_CONST);
         IToken ident = match(Kind.IDENT);
-        match(Kind.EQ);
+        skip(Kind.EQ);
         Expression constVal = parseConstExpr();
         Object constObj = toObject(constVal);
         consts.add(new ConstDec(first, ident, constObj));
         while (isKind(Kind.COMMA)) {
-            match(Kind.COMMA);
+            skip(Kind.COMMA);
             IToken identNext = match(Kind.IDENT);
-            match(Kind.EQ);
+            skip(Kind.EQ);
             Expression constValNext = parseConstExpr();
             Object constObjNext = toObject(constValNext);
             consts.add(new ConstDec(first, identNext, constObjNext));
         }
-        match(Kind.SEMI);
+        skip(Kind.SEMI);
         return consts;
     }
 
-    public Object parseObject(Expression expr) throws SyntaxException {
+    public Object parseObject(Expression expr) throws PLPException {
         return isKind(expr.getFirstToken(), Kind.NUM_LIT) ? expr.getFirstToken().getIntValue()
                 : isKind(expr.getFirstToken(), Kind.STRING_LIT)? expr.getFirstToken().getStringValue()
                 : expr.getFirstToken().getBooleanValue();
     }
 
-    public List<VarDec> parseVarDec() throws SyntaxException {
+    public List<VarDec> parseVarDec() throws PLPException {
         List<VarDec> vars = new ArrayList<>();
         IToken first = match(Kind.KW_VAR);
         vars.add(new VarDec(first, match(Kind.IDENT)));
         while (isKind(Kind.COMMA)) {
-            match(Kind.COMMA);
+            skip(Kind.COMMA);
             vars.add(new VarDec(first, match(Kind.IDENT)));
         }
-        match(Kind.SEMI);
+        skip(Kind.SEMI);
         return vars;
     }
 
-    public ProcDec parseProcDec() throws SyntaxException {
+    public ProcDec parseProcDec() throws PLPException {
+        if (preparsed != null && preparsed.containsKey(indexed.index())) {
+            // already parsed in parallel; continue after its tokens
+            int start = indexed.index();
+            indexed.seek(preparsedEnds.get(start));
+            return preparsed.get(start);
+        }
         IToken first = match(Kind.KW_PROCEDURE);
         IToken ident = match(Kind.IDENT);
-        match(Kind.SEMI);
+        skip(Kind.SEMI);
         Block block = parseBlock();
-        match(Kind.SEMI);
+        skip(Kind.SEMI);
         return new ProcDec(first, ident, block);
     }
 
-    public Statement parseStmt() throws SyntaxException {
-        switch (peek().getKind()) {
+    public Statement parseStmt() throws PLPException {
+        LargeStack.checkInterrupted();
+        IToken first = tokens.token();
+        try {
+            return parseStmtKind();
+        }
+        catch (SyntaxException e) {
+            // the broken statement is left out of the tree
+            recover(e);
+            synchronize();
+            return new StatementEmpty(first);
+        }
+    }
+
+    private Statement parseStmtKind() throws PLPException {
+        switch (peekKind()) {
             case IDENT:
                 return parseAssignStmt();
             case KW_CALL:
@@ -120,104 +266,84 @@ public class Parser implements IParser{
         }
     }
 
-    public StatementAssign parseAssignStmt() throws SyntaxException {
+    public StatementAssign parseAssignStmt() throws PLPException {
         IToken first = peek();
         Ident ident = parseIdent();
-        match(Kind.ASSIGN);
+        skip(Kind.ASSIGN);
         Expression expr = parseExpr();
         return new StatementAssign(first, ident, expr);
     }
 
-    public StatementCall parseCallStmt() throws SyntaxException {
+    public StatementCall parseCallStmt() throws PLPException {
         IToken first = match(Kind.KW_CALL);
         Ident ident = parseIdent();
         return new StatementCall(first, ident);
     }
 
-    public StatementInput parseInputStmt() throws SyntaxException {
+    public StatementInput parseInputStmt() throws PLPException {
         IToken first = match(Kind.QUESTION);
         Ident ident = parseIdent();
         return new StatementInput(first, ident);
     }
 
-    public StatementOutput parseOutputStmt() throws SyntaxException {
+    public StatementOutput parseOutputStmt() throws PLPException {
         IToken first = match(Kind.BANG);
         Expression expr = parseExpr();
         return new StatementOutput(first, expr);
     }
 
-    public StatementBlock parseBlockStmt() throws SyntaxException {
+    public StatementBlock parseBlockStmt() throws PLPException {
         IToken first = match(Kind.KW_BEGIN);
         List<Statement> stmts = new ArrayList<>();
         stmts.add(parseStmt());
         while (isKind(Kind.SEMI)) {
-            match(Kind.SEMI);
+            skip(Kind.SEMI);
             stmts.add(parseStmt());
         }
-        match(Kind.KW_END);
+        skip(Kind.KW_END);
         return new StatementBlock(first, stmts);
     }
 
-    public StatementIf parseIfStmt() throws SyntaxException {
+    public StatementIf parseIfStmt() throws PLPException {
         IToken first = match(Kind.KW_IF);
         Expression expr = parseExpr();
-        match(Kind.KW_THEN);
+        skip(Kind.KW_THEN);
         Statement stmt = parseStmt();
         return new StatementIf(first, expr, stmt);
     }
 
-    public StatementWhile parseWhileStmt() throws SyntaxException {
+    public StatementWhile parseWhileStmt() throws PLPException {
         IToken first = match(Kind.KW_WHILE);
         Expression expr = parseExpr();
-        match(Kind.KW_DO);
+        skip(Kind.KW_DO);
         Statement stmt = parseStmt();
         return new StatementWhile(first, expr, stmt);
     }
 
-    public StatementEmpty parseEmptyStmt() throws SyntaxException{
+    public StatementEmpty parseEmptyStmt() throws PLPException{
         // don't remove DOT; handled later
         return new StatementEmpty(peek());
     }
 
-    public Expression parseExpr() throws SyntaxException {
-        IToken first = peek();
-        Expression e0 = parseAdditiveExpr();
-        Expression e1;
-        while (isKind(Kind.LT) || isKind(Kind.GT) || isKind(Kind.EQ) || isKind(Kind.NEQ)
-            || isKind(Kind.LE) || isKind(Kind.GE)) {
-            IToken op = consume();
-            e1 = parseAdditiveExpr();
-            e0 = new ExpressionBinary(first, e0, op, e1);
-        }
-        return e0;
+    public Expression parseExpr() throws PLPException {
+        return parseBinaryExpr(0);
     }
 
-    public Expression parseAdditiveExpr() throws SyntaxException {
-        IToken first = peek();
-        Expression e0 = parseMultiplicativeExpr();
-        Expression e1;
-        while (isKind(Kind.PLUS) || isKind(Kind.MINUS)) {
-            IToken op = consume();
-            e1 = parseMultiplicativeExpr();
-            e0 = new ExpressionBinary(first, e0, op, e1);
-        }
-        return e0;
-    }
-
-    public Expression parseMultiplicativeExpr() throws SyntaxException {
+    // precedence climbing: operators binding tighter than minPower are folded into the left operand
+    public Expression parseBinaryExpr(int minPower) throws PLPException {
         IToken first = peek();
         Expression e0 = parsePrimaryExpr();
-        Expression e1;
-        while (isKind(Kind.TIMES) || isKind(Kind.DIV) || isKind(Kind.MOD)) {
+        int power;
+        while ((power = BINDING_POWER[peekKind().ordinal()]) > minPower) {
             IToken op = consume();
-            e1 = parsePrimaryExpr();
+            Expression e1 = parseBinaryExpr(power);
             e0 = new ExpressionBinary(first, e0, op, e1);
         }
         return e0;
     }
 
-    public Expression parsePrimaryExpr() throws SyntaxException {
-        switch (peek().getKind()) {
+    public Expression parsePrimaryExpr() throws PLPException {
+        switch (peekKind()) {
             case IDENT:
                 return parseIdentExpr();
             case BOOLEAN_LIT:
@@ -233,8 +359,8 @@ public class Parser implements IParser{
         }
     }
 
-    public Expression parseConstExpr() throws SyntaxException {
-        switch (peek().getKind()) {
+    public Expression parseConstExpr() throws PLPException {
+        switch (peekKind()) {
             case BOOLEAN_LIT:
                 return parseBooleanExpr();
             case STRING_LIT:
@@ -246,69 +372,106 @@ public class Parser implements IParser{
         }
     }
 
-    public Expression parseParenExpr() throws SyntaxException {
-        match(Kind.LPAREN);
+    public Expression parseParenExpr() throws PLPException {
+        skip(Kind.LPAREN);
         Expression expr = parseExpr();
-        match(Kind.RPAREN);
+        skip(Kind.RPAREN);
         return expr;
     }
 
-    public ExpressionIdent parseIdentExpr() throws SyntaxException {
+    public ExpressionIdent parseIdentExpr() throws PLPException {
         ExpressionIdent exp = new ExpressionIdent(match(Kind.IDENT));
         return exp;
     }
 
-    public ExpressionBooleanLit parseBooleanExpr() throws SyntaxException {
+    public ExpressionBooleanLit parseBooleanExpr() throws PLPException {
         return new ExpressionBooleanLit(match(Kind.BOOLEAN_LIT));
     }
 
-    public ExpressionNumLit parseNumberExpr() throws SyntaxException {
+    public ExpressionNumLit parseNumberExpr() throws PLPException {
         return new ExpressionNumLit(match(Kind.NUM_LIT));
     }
 
-    public ExpressionStringLit parseStringExpr() throws SyntaxException {
+    public ExpressionStringLit parseStringExpr() throws PLPException {
         return new ExpressionStringLit(match(Kind.STRING_LIT));
     }
 
-    public Ident parseIdent() throws SyntaxException {
+    public Ident parseIdent() throws PLPException {
         return new Ident(match(Kind.IDENT));
     }
 
-    private boolean isKind(Kind kind) throws SyntaxException {
-        if (peek().getKind().equals(kind))
+    private boolean isKind(Kind kind) throws PLPException {
+        if (peekKind().equals(kind))
             return true;
         return false;
     }
 
-    private boolean isKind(IToken token, Kind kind) throws SyntaxException {
+    private boolean isKind(IToken token, Kind kind) throws PLPException {
         if (token.getKind().equals(kind))
             return true;
         return false;
     }
 
-    private IToken consume() {
-        IToken next = tokens.get(index);
-        index++;
+    private IToken consume() throws PLPException {
+        IToken next = tokens.token();
+        tokens.advance();
         return next;
     }
 
-    private IToken match(Kind kind) throws SyntaxException {
-        if (index >= tokens.size()) {
-            throw new SyntaxException("Invalid end of statement.");
-        }
-        else if (!isKind(kind))
+    private IToken match(Kind kind) throws PLPException {
+        if (!isKind(kind))
             throw new SyntaxException("Type " + kind + " required.");
         return consume();
     }
 
-    private IToken peek() throws SyntaxException {
-        if (index >= tokens.size()) {
+    // like match, for tokens the AST does not keep
+    private void skip(Kind kind) throws PLPException {
+        if (!isKind(kind))
+            throw new SyntaxException("Type " + kind + " required.");
+        tokens.advance();
+    }
+
+    private IToken peek() throws PLPException {
+        peekKind();
+        return tokens.token();
+    }
+
+    private Kind peekKind() throws PLPException {
+        Kind kind = tokens.kind();
+        if (kind.equals(Kind.EOF)) {
             throw new SyntaxException("Invalid end of statement.");
         }
-        return tokens.get(index);
+        return kind;
+    }
+
+    // rethrows e unless recovering; an error at the same token as the last one is a cascade and not recorded
+    private void recover(SyntaxException e) throws PLPException {
+        if (!recover) {
+            throw e;
+        }
+        IToken token = tokens.token();
+        if (token != lastError) {
+            IToken.SourceLocation loc = token.getSourceLocation();
+            errors.add(new SyntaxException(e.getMessage(), loc.line(), loc.column()));
+            lastError = token;
+        }
+    }
+
+    private void recoverDeclaration(SyntaxException e) throws PLPException {
+        recover(e);
+        synchronize();
+        if (tokens.kind().equals(Kind.SEMI)) {
+            tokens.advance();
+        }
+    }
+
+    private void synchronize() throws PLPException {
+        while (!SYNC[tokens.kind().ordinal()]) {
+            tokens.advance();
+        }
     }
 
-    private Object toObject(Expression expr) throws SyntaxException {
+    private Object toObject(Expression expr) throws PLPException {
         if (expr instanceof ExpressionNumLit)
             return expr.firstToken.getIntValue();
         else if (expr instanceof ExpressionStringLit)
@@ -5,11 +5,18 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 import edu.ufl.cise.plpfa22.IToken.Kind;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
 import edu.ufl.cise.plpfa22.ast.ASTNode;
+import edu.ufl.cise.plpfa22.ast.AstArena;
 import edu.ufl.cise.plpfa22.ast.Block;
 import edu.ufl.cise.plpfa22.ast.ConstDec;
 import edu.ufl.cise.plpfa22.ast.Expression;
@@ -19,6 +26,7 @@ import edu.ufl.cise.plpfa22.ast.ExpressionIdent;
 import edu.ufl.cise.plpfa22.ast.ExpressionNumLit;
 import edu.ufl.cise.plpfa22.ast.ExpressionStringLit;
 import edu.ufl.cise.plpfa22.ast.Ident;
+import edu.ufl.cise.plpfa22.ast.PrettyPrintVisitor;
 import edu.ufl.cise.plpfa22.ast.ProcDec;
 import edu.ufl.cise.plpfa22.ast.Program;
 import edu.ufl.cise.plpfa22.ast.Statement;
@@ -1498,4 +1506,352 @@ class ParserTest {
 		List<ProcDec> v1 = ((Block) v0).procedureDecs;
 		assertEquals(1, v1.size());
 	}
-}
\ No newline at end of file
+
+	@Test
+	void testLazyParser() throws PLPException {
+		String input = """
+			CONST a = 3, s = "str";
+			VAR x, y;
+			PROCEDURE p;
+				VAR z;
+				BEGIN z := (a + x) * 2 >= 7; IF z THEN ! s END;
+			BEGIN ? x; CALL p; WHILE x > 0 DO x := x - 1 END
+			.
+			""";
+		ASTNode expected = getAST(input);
+		ASTNode ast = CompilerComponentFactory.getLazyParser(CompilerComponentFactory.getLexer(input)).parse();
+		// printing needs the declarations and types filled in
+		for (ASTNode node : new ASTNode[] { expected, ast }) {
+			node.visit(CompilerComponentFactory.getScopeVisitor(), null);
+			node.visit(CompilerComponentFactory.getTypeInferenceVisitor(), null);
+		}
+		// the printer's indentation carries over between calls
+		assertEquals(PrettyPrintVisitor.AST2String(expected).replaceAll("\n\\s+", "\n"),
+				PrettyPrintVisitor.AST2String(ast).replaceAll("\n\\s+", "\n"));
+		checkToken(((Program) ast).block.procedureDecs.get(0).ident, Kind.IDENT, 3, 11);
+		// tokens are pulled on demand, so the syntax error is found before the bad character is lexed
+		String bad = """
+			! 1 + ;
+			@
+			""";
+		assertThrows(LexicalException.class, () -> getAST(bad));
+		assertThrows(SyntaxException.class, () -> CompilerComponentFactory.getLazyParser(CompilerComponentFactory.getLexer(bad)).parse());
+	}
+
+	@Test
+	void testPrecedence() throws PLPException {
+		String input = """
+			! a - (b + c) * d % 2 < 5 = x
+			.
+			""";
+		ASTNode ast = getAST(input);
+		Expression e = ((StatementOutput) ((Program) ast).block.statement).expression;
+		// ((a - (((b + c) * d) % 2)) < 5) = x
+		ExpressionBinary eq = (ExpressionBinary) e;
+		checkToken(eq.op, Kind.EQ, 1, 27);
+		checkToken(eq.firstToken, Kind.IDENT, 1, 3);
+		ExpressionBinary lt = (ExpressionBinary) eq.e0;
+		checkToken(lt.op, Kind.LT, 1, 23);
+		ExpressionBinary minus = (ExpressionBinary) lt.e0;
+		checkToken(minus.op, Kind.MINUS, 1, 5);
+		ExpressionBinary mod = (ExpressionBinary) minus.e1;
+		checkToken(mod.op, Kind.MOD, 1, 19);
+		checkToken(mod.firstToken, Kind.LPAREN, 1, 7);
+		ExpressionBinary times = (ExpressionBinary) mod.e0;
+		checkToken(times.op, Kind.TIMES, 1, 15);
+		checkToken(times.firstToken, Kind.LPAREN, 1, 7);
+		ExpressionBinary plus = (ExpressionBinary) times.e0;
+		checkToken(plus.firstToken, Kind.IDENT, 1, 8);
+		assertThat(times.e1, instanceOf(ExpressionIdent.class));
+	}
+
+	@Test
+	void testDeepNesting() throws PLPException {
+		int depth = 100000;
+		StringBuilder input = new StringBuilder("VAR x; ");
+		for (int i = 0; i < depth; i++) {
+			input.append("BEGIN IF TRUE THEN ");
+		}
+		input.append("x := ");
+		input.append("(".repeat(depth)).append('1').append(")".repeat(depth));
+		input.append(" END".repeat(depth)).append(" .");
+		ASTNode ast = CompilerComponentFactory.getDeepParser(CompilerComponentFactory.getLexer(input.toString())).parse();
+		// the factory's visitors run on a large stack themselves
+		ast.visit(CompilerComponentFactory.getScopeVisitor(), null);
+		ast.visit(CompilerComponentFactory.getTypeInferenceVisitor(), null);
+		Statement s = ((Program) ast).block.statement;
+		for (int i = 0; i < depth; i++) {
+			s = ((StatementIf) ((StatementBlock) s).statements.get(0)).statement;
+		}
+		assertThat(((StatementAssign) s).expression, instanceOf(ExpressionNumLit.class));
+		assertThrows(SyntaxException.class,
+				() -> CompilerComponentFactory.getDeepParser(CompilerComponentFactory.getLexer(input + " x")).parse());
+		// every parser runs on a large stack, not only the deep one
+		for (IParser parser : new IParser[] { CompilerComponentFactory.getParser(CompilerComponentFactory.getLexer(input.toString())),
+				CompilerComponentFactory.getLazyParser(CompilerComponentFactory.getLexer(input.toString())),
+				CompilerComponentFactory.getRecoveringParser(CompilerComponentFactory.getLexer(input.toString())) }) {
+			assertThat(parser.parse(), instanceOf(Program.class));
+		}
+	}
+
+	@Test
+	void testRecovery() throws PLPException {
+		String input = """
+			CONST a = ;
+			VAR x, y;
+			PROCEDURE p;
+				BEGIN x := ; ! x END;
+			BEGIN
+				x := 1 +;
+				y := x;
+				CALL 3
+			END
+			""";
+		IParser parser = CompilerComponentFactory.getRecoveringParser(CompilerComponentFactory.getLexer(input));
+		Program ast = (Program) parser.parse();
+		List<SyntaxException> errors = ((Parser) parser).getErrors();
+		assertEquals(5, errors.size());
+		assertTrue(errors.get(0).getMessage().startsWith("1:11"));
+		assertTrue(errors.get(1).getMessage().startsWith("4:13"));
+		assertTrue(errors.get(2).getMessage().startsWith("6:10"));
+		assertTrue(errors.get(3).getMessage().startsWith("8:7"));
+		assertTrue(errors.get(4).getMessage().startsWith("10:1"));
+		// the rest of the program is still built
+		assertEquals(2, ast.block.varDecs.size());
+		assertEquals(1, ast.block.procedureDecs.size());
+		List<Statement> stmts = ((StatementBlock) ast.block.statement).statements;
+		assertEquals(3, stmts.size());
+		assertThat(stmts.get(0), instanceOf(StatementEmpty.class));
+		assertThat(stmts.get(1), instanceOf(StatementAssign.class));
+		assertThrows(SyntaxException.class, () -> getAST(input));
+	}
+
+	@Test
+	void testParallelParser() throws PLPException {
+		String input = """
+			VAR x;
+			PROCEDURE p;
+				PROCEDURE q;
+					BEGIN x := x + 1; IF x < 3 THEN CALL q END;
+				CALL q;
+			PROCEDURE r;
+				CONST s = "r";
+				! s;
+			PROCEDURE t;
+				WHILE x > 0 DO BEGIN x := x - 1 END;
+			BEGIN CALL p; CALL r; CALL t END
+			.
+			""";
+		ASTNode expected = getAST(input);
+		ASTNode ast = CompilerComponentFactory.getParallelParser(CompilerComponentFactory.getLexer(input)).parse();
+		for (ASTNode node : new ASTNode[] { expected, ast }) {
+			node.visit(CompilerComponentFactory.getScopeVisitor(), null);
+			node.visit(CompilerComponentFactory.getTypeInferenceVisitor(), null);
+		}
+		assertEquals(PrettyPrintVisitor.AST2String(expected).replaceAll("\n\\s+", "\n"),
+				PrettyPrintVisitor.AST2String(ast).replaceAll("\n\\s+", "\n"));
+		List<int[]> spans = ProcedureSpans.find(TokenStream.of(CompilerComponentFactory.getLexer(input)));
+		assertEquals(3, spans.size());
+		assertEquals(3, spans.get(0)[0]);
+		assertEquals(28, spans.get(1)[0]);
+		// a broken procedure falls back to the sequential parse and its error
+		String bad = input.replace("CONST s = \"r\";", "CONST s = ;");
+		assertThrows(SyntaxException.class,
+				() -> CompilerComponentFactory.getParallelParser(CompilerComponentFactory.getLexer(bad)).parse());
+		// procedure bodies are parsed on large stacks too
+		int depth = 50000;
+		StringBuilder deep = new StringBuilder("VAR x;\n");
+		for (int p = 0; p < 4; p++) {
+			deep.append("PROCEDURE p").append(p).append(";\n");
+			deep.append("BEGIN ".repeat(depth)).append("x := ").append(p).append(" END".repeat(depth)).append(";\n");
+		}
+		deep.append("CALL p0\n.");
+		Program program = (Program) CompilerComponentFactory.getParallelParser(CompilerComponentFactory.getLexer(deep.toString())).parse();
+		assertEquals(4, program.block.procedureDecs.size());
+		Statement s = program.block.procedureDecs.get(3).block.statement;
+		for (int i = 0; i < depth; i++) {
+			s = ((StatementBlock) s).statements.get(0);
+		}
+		assertEquals(3, ((StatementAssign) s).expression.firstToken.getIntValue());
+	}
+
+	@Test
+	void testArena() throws PLPException {
+		String input = """
+			CONST n = 4, t = TRUE, s = "s";
+			VAR x, y;
+			PROCEDURE p;
+				VAR z;
+				BEGIN z := x * (y + n); CALL q END;
+			PROCEDURE q;
+				IF t THEN ! s;
+			BEGIN ? x; y := 1; CALL p; WHILE x # 0 DO x := x - 1 END
+			.
+			""";
+		ASTNode expected = getAST(input);
+		expected.visit(CompilerComponentFactory.getScopeVisitor(), null);
+		expected.visit(CompilerComponentFactory.getTypeInferenceVisitor(), null);
+		String printed = PrettyPrintVisitor.AST2String(expected).replaceAll("\n\\s+", "\n");
+		// the existing passes run over the arena and leave their results in it
+		AstArena arena = AstArena.fromProgram((Program) getAST(input));
+		arena.visit(CompilerComponentFactory.getScopeVisitor(), null);
+		arena.visit(CompilerComponentFactory.getTypeInferenceVisitor(), null);
+		assertEquals(printed, PrettyPrintVisitor.AST2String(arena.toProgram()).replaceAll("\n\\s+", "\n"));
+		// a decorated tree survives the round trip
+		Program copy = AstArena.fromProgram((Program) expected).toProgram();
+		assertEquals(printed, PrettyPrintVisitor.AST2String(copy).replaceAll("\n\\s+", "\n"));
+		assertEquals(AstArena.PROGRAM, arena.getKind(arena.root()));
+		int block = arena.getA(arena.root());
+		assertEquals(AstArena.BLOCK, arena.getKind(block));
+		checkToken(arena.getToken(block), Kind.KW_CONST, 1, 1);
+		Ident call = ((StatementCall) ((StatementBlock) copy.block.procedureDecs.get(0).block.statement).statements.get(1)).ident;
+		assertEquals(copy.block.procedureDecs.get(1), call.getDec());
+	}
+
+	byte[] arenaBytes(Program program) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		AstArena.fromProgram(program).write(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	void testArenaDeepNesting() throws PLPException {
+		int depth = 100000;
+		String input = "VAR x; " + "BEGIN WHILE x > 0 DO ".repeat(depth) + "x := " + "(".repeat(depth) + "x - 1" + ")".repeat(depth)
+				+ " END".repeat(depth) + " .";
+		ASTNode ast = CompilerComponentFactory.getParser(CompilerComponentFactory.getLexer(input)).parse();
+		// flattening and inflating need no stack of their own
+		AstArena arena = AstArena.fromProgram((Program) ast);
+		Program copy = arena.toProgram();
+		Statement s = copy.block.statement;
+		for (int i = 0; i < depth; i++) {
+			s = ((StatementWhile) ((StatementBlock) s).statements.get(0)).statement;
+		}
+		Expression e = ((StatementAssign) s).expression;
+		assertThat(e, instanceOf(ExpressionBinary.class));
+		assertEquals("x", String.valueOf(((ExpressionBinary) e).e0.firstToken.getText()));
+		assertEquals(arena.size(), AstArena.fromProgram(copy).size());
+	}
+
+	@Test
+	void testAstCache() throws PLPException, IOException {
+		String input = """
+			CONST s = "cached";
+			VAR x;
+			PROCEDURE p;
+				x := x + 1;
+			BEGIN x := 0; CALL p; ! s; ! x > 0 END
+			.
+			""";
+		Path dir = Files.createTempDirectory("astcache");
+		try {
+			AstCache cache = new AstCache(dir);
+			assertNull(cache.load(input));
+			Program compiled = cache.compile(input);
+			String printed = PrettyPrintVisitor.AST2String(compiled).replaceAll("\n\\s+", "\n");
+			assertNotNull(cache.load(input));
+			for (boolean mapped : new boolean[] { false, true }) {
+				cache.setMapped(mapped);
+				Program cached = cache.compile(input);
+				assertEquals(printed, PrettyPrintVisitor.AST2String(cached).replaceAll("\n\\s+", "\n"));
+				checkToken(cached.block.procedureDecs.get(0).ident, Kind.IDENT, 3, 11);
+			}
+			assertNull(cache.load(input + " "));
+		}
+		finally {
+			try (var files = Files.list(dir)) {
+				for (Path file : files.toList()) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	void testAstCacheDeepNesting() throws PLPException, IOException {
+		int depth = 100000;
+		String input = "VAR x; " + "BEGIN IF x > 0 THEN ".repeat(depth) + "x := " + "(".repeat(depth) + "x - 1" + ")".repeat(depth)
+				+ " END".repeat(depth) + " .";
+		Path dir = Files.createTempDirectory("astcache");
+		try {
+			AstCache cache = new AstCache(dir);
+			// parsing, the passes, flattening and inflating all cope with the depth, on a miss and a hit
+			for (int i = 0; i < 2; i++) {
+				Program program = cache.compile(input);
+				Statement s = program.block.statement;
+				for (int j = 0; j < depth; j++) {
+					s = ((StatementIf) ((StatementBlock) s).statements.get(0)).statement;
+				}
+				assertEquals(program.block.varDecs.get(0), ((StatementAssign) s).ident.getDec());
+				assertNotNull(cache.load(input));
+			}
+		}
+		finally {
+			try (var files = Files.list(dir)) {
+				for (Path file : files.toList()) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	void testAstCacheCorruptEntry() throws PLPException, IOException {
+		String input = """
+			CONST n = 4, s = "s";
+			VAR x;
+			PROCEDURE p;
+				x := x + n;
+			BEGIN x := 0; CALL p; ! x; ! s END
+			.
+			""";
+		ASTNode fresh = getAST(input);
+		fresh.visit(CompilerComponentFactory.getScopeVisitor(), null);
+		fresh.visit(CompilerComponentFactory.getTypeInferenceVisitor(), null);
+		byte[] expected = arenaBytes((Program) fresh);
+		Path dir = Files.createTempDirectory("astcache");
+		try {
+			AstCache cache = new AstCache(dir);
+			assertArrayEquals(expected, arenaBytes(cache.compile(input)));
+			Path entry;
+			try (var files = Files.list(dir)) {
+				entry = files.toList().get(0);
+			}
+			byte[] valid = Files.readAllBytes(entry);
+			// a truncated entry is a miss that replaces it
+			for (int length = 0; length < valid.length; length += 7) {
+				Files.write(entry, Arrays.copyOf(valid, length));
+				assertArrayEquals(expected, arenaBytes(cache.compile(input)));
+				assertArrayEquals(valid, Files.readAllBytes(entry));
+			}
+			// so is one with any bit flipped, even where the arena would still read back as a tree
+			for (int offset = 0; offset < valid.length; offset++) {
+				byte[] corrupt = valid.clone();
+				corrupt[offset] ^= (byte) (1 << (offset % 8));
+				Files.write(entry, corrupt);
+				assertArrayEquals(expected, arenaBytes(cache.compile(input)));
+			}
+			// an entry that cannot be written leaves no temporary file behind
+			Files.delete(entry);
+			Files.createDirectory(entry);
+			Files.createFile(entry.resolve("blocker"));
+			assertNotNull(cache.compile(input));
+			try (var files = Files.list(dir)) {
+				assertEquals(List.of(entry), files.toList());
+			}
+			Files.delete(entry.resolve("blocker"));
+		}
+		finally {
+			try (var files = Files.list(dir)) {
+				for (Path file : files.toList()) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(dir);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package edu.ufl.cise.plpfa22;
+
+import edu.ufl.cise.plpfa22.IToken.Kind;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Finds the token span of each procedure declared in the program's outermost block by
+// following only the declaration and BEGIN/END structure, without building any AST.
+class ProcedureSpans {
+
+    private final TokenStream tokens;
+    private final List<int[]> spans;
+
+    private ProcedureSpans(TokenStream tokens) {
+        this.tokens = tokens;
+        this.spans = new ArrayList<>();
+    }
+
+    // {start, end} token indexes of each outermost ProcDec, or null if the structure is not as expected
+    static List<int[]> find(TokenStream tokens) {
+        ProcedureSpans finder = new ProcedureSpans(tokens);
+        return finder.block(0, true) < 0 ? null : finder.spans;
+    }
+
+    // returns the index of the token that ends the block's statement, or -1
+    private int block(int i, boolean outermost) {
+        while (kind(i) == Kind.KW_CONST || kind(i) == Kind.KW_VAR) {
+            // declarations never contain a nested ;
+            while (kind(i) != Kind.SEMI) {
+                if (kind(i) == Kind.EOF) {
+                    return -1;
+                }
+                i++;
+            }
+            i++;
+        }
+        while (kind(i) == Kind.KW_PROCEDURE) {
+            int start = i;
+            if (kind(i + 1) != Kind.IDENT || kind(i + 2) != Kind.SEMI) {
+                return -1;
+            }
+            i = block(i + 3, false);
+            if (i < 0 || kind(i) != Kind.SEMI) {
+                return -1;
+            }
+            i++;
+            if (outermost) {
+                spans.add(new int[] { start, i });
+            }
+        }
+        // the statement runs to the first ; or . outside BEGIN ... END
+        int depth = 0;
+        while (depth > 0 || (kind(i) != Kind.SEMI && kind(i) != Kind.DOT)) {
+            Kind kind = kind(i);
+            if (kind == Kind.EOF) {
+                return -1;
+            }
+            if (kind == Kind.KW_BEGIN) {
+                depth++;
+            }
+            else if (kind == Kind.KW_END) {
+                if (depth == 0) {
+                    return -1;
+                }
+                depth--;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private Kind kind(int i) {
+        return i < tokens.size() ? tokens.getKind(i) : Kind.EOF;
+    }
+}
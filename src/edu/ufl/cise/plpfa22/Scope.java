@@ -0,0 +1,86 @@
+package edu.ufl.cise.plpfa22;
+
+import edu.ufl.cise.plpfa22.ast.ASTNode;
+import edu.ufl.cise.plpfa22.ast.Address;
+import edu.ufl.cise.plpfa22.ast.Block;
+import edu.ufl.cise.plpfa22.ast.ConstDec;
+import edu.ufl.cise.plpfa22.ast.Declaration;
+import edu.ufl.cise.plpfa22.ast.Frame;
+import edu.ufl.cise.plpfa22.ast.ProcDec;
+import edu.ufl.cise.plpfa22.ast.VarDec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Everything visible in one block: its own declarations put into a persistent map over the
+// enclosing block's. The map is never changed once built, so sibling procedure bodies can be
+// resolved against the same parent at once.
+class Scope {
+
+    final SymbolMap<Declaration> visible;
+    final Frame frame;
+    final int nest;
+    final Declaration[] own;
+    // only touched by the thread resolving this block's own statement
+    final Map<Declaration, Address> addresses;
+    // the uses in the block and the blocks inside it left for the procedure fixup, with the
+    // scopes open at them
+    final List<ASTNode> deferred;
+    final List<Frame> deferredFrames;
+
+    // the scope of block, opened as frame inside outer (null for the program)
+    Scope(Scope outer, Frame frame, Block block) throws ScopeException {
+        this.frame = frame;
+        nest = frame.getDepth();
+        own = new Declaration[block.constDecs.size() + block.varDecs.size() + block.procedureDecs.size()];
+        addresses = new HashMap<>();
+        deferred = new ArrayList<>();
+        deferredFrames = new ArrayList<>();
+        SymbolMap<Declaration> map = outer == null ? SymbolMap.empty() : outer.visible;
+        int i = 0;
+        for (ConstDec con : block.constDecs)
+            map = declare(map, own[i++] = con);
+        for (VarDec var : block.varDecs)
+            map = declare(map, own[i++] = var);
+        for (ProcDec p : block.procedureDecs)
+            map = declare(map, own[i++] = p);
+        visible = map;
+    }
+
+    // the frame of proc's body
+    static Frame frame(Scope outer, ProcDec proc) {
+        return outer == null ? Frame.root() : outer.frame.enter(SymbolTable.getIdentText(proc));
+    }
+
+    private SymbolMap<Declaration> declare(SymbolMap<Declaration> map, Declaration dec) throws ScopeException {
+        int symbol = SymbolTable.getSymbol(dec);
+        Declaration shadowed = map.get(symbol);
+        if (shadowed != null && shadowed.getNest() == nest) {
+            throw new ScopeException("Identifier already exists in same scope.");
+        }
+        dec.setNest(nest);
+        return map.put(symbol, dec);
+    }
+
+    // the innermost declaration of symbol
+    Declaration lookup(int symbol) {
+        return visible.get(symbol);
+    }
+
+    void defer(ASTNode use) {
+        deferred.add(use);
+        deferredFrames.add(frame);
+    }
+
+    // takes over what a procedure body left for the fixup
+    void include(Scope inner) {
+        deferred.addAll(inner.deferred);
+        deferredFrames.addAll(inner.deferredFrames);
+    }
+
+    Address address(Declaration dec) {
+        return addresses.computeIfAbsent(dec, d -> SymbolTable.address(frame, d));
+    }
+}
@@ -5090,4 +5090,225 @@ class ScopeTest {
         });
     }
 
+    @Test
+    void testManyDeclarations() throws PLPException {
+        int count = 100000;
+        StringBuilder input = new StringBuilder("VAR v0");
+        for (int i = 1; i < count; i++) {
+            input.append(", v").append(i);
+        }
+        input.append(";\nPROCEDURE p;\nVAR v7;\nBEGIN");
+        for (int i = 0; i < count; i++) {
+            input.append(" v").append(i).append(" := ").append(i).append(';');
+        }
+        input.append(" CALL q END;\nPROCEDURE q;\n;\n.");
+        ASTNode ast = getDecoratedAST(input.toString());
+        Block block = ((Program) ast).block;
+        List<Statement> statements = ((StatementBlock) block.procedureDecs.get(0).block.statement).statements;
+        // v7 is shadowed inside p, everything else resolves to the outer block
+        assertEquals(block.procedureDecs.get(0).block.varDecs.get(0), ((StatementAssign) statements.get(7)).ident.getDec());
+        assertEquals(block.varDecs.get(99999), ((StatementAssign) statements.get(99999)).ident.getDec());
+        assertEquals(1, ((StatementAssign) statements.get(99999)).ident.getNest());
+        assertEquals(block.procedureDecs.get(1), ((StatementCall) statements.get(count)).ident.getDec());
+    }
+
+    @Test
+    void testForwardProcedureReferences() throws PLPException {
+        String input = """
+				PROCEDURE a;
+					BEGIN CALL r; CALL b END;
+				PROCEDURE b;
+					PROCEDURE r;
+						;
+					;
+				PROCEDURE c;
+					PROCEDURE r;
+						;
+					;
+				CALL r
+				.
+				""";
+        ASTNode ast = getDecoratedAST(input);
+        Block block = ((Program) ast).block;
+        List<Statement> statements = ((StatementBlock) block.procedureDecs.get(0).block.statement).statements;
+        // r is not visible from a; the last procedure named r is used, as for the CALL in the main block
+        ProcDec lastR = block.procedureDecs.get(2).block.procedureDecs.get(0);
+        assertEquals(lastR, ((StatementCall) statements.get(0)).ident.getDec());
+        assertEquals(block.procedureDecs.get(1), ((StatementCall) statements.get(1)).ident.getDec());
+        assertEquals(lastR, ((StatementCall) block.statement).ident.getDec());
+        assertThrows(ScopeException.class, () -> getDecoratedAST("CALL s ."));
+    }
+
+    @Test
+    void testAddresses() throws PLPException {
+        String input = """
+				VAR x;
+				PROCEDURE p;
+					VAR y;
+					PROCEDURE q;
+						BEGIN x := y; y := x; CALL p END;
+					;
+				x := 1
+				.
+				""";
+        ASTNode ast = getDecoratedAST(input);
+        Block block = ((Program) ast).block;
+        List<Statement> statements = ((StatementBlock) block.procedureDecs.get(0).block.procedureDecs.get(0).block.statement).statements;
+        Address x = ((StatementAssign) statements.get(0)).ident.getAddress();
+        Address y = ((ExpressionIdent) ((StatementAssign) statements.get(0)).expression).getAddress();
+        // uses of a declaration within one scope share an address
+        assertEquals(x, ((ExpressionIdent) ((StatementAssign) statements.get(1)).expression).getAddress());
+        assertEquals(y, ((StatementAssign) statements.get(1)).ident.getAddress());
+        assertEquals(2, x.getHops());
+        assertEquals(1, y.getHops());
+        assertEquals(0, ((StatementAssign) block.statement).ident.getAddress().getHops());
+        x.bind("edu/ufl/cise/plpfa22/prog", Types.Type.NUMBER);
+        assertEquals("edu/ufl/cise/plpfa22/prog", x.getOwner());
+        assertEquals("x", x.getName());
+        assertEquals("I", x.getDesc());
+        assertEquals("edu/ufl/cise/plpfa22/prog$p$q", x.getLinkOwner(0));
+        assertEquals("this$1", x.getLinkField(0));
+        assertEquals("Ledu/ufl/cise/plpfa22/prog$p;", x.getLinkDesc(0));
+        assertEquals("this$0", x.getLinkField(1));
+        // p is a field-less declaration of the program class, two links out from q
+        Address p = ((StatementCall) statements.get(2)).ident.getAddress();
+        p.bind("edu/ufl/cise/plpfa22/prog", null);
+        assertEquals(2, p.getHops());
+        assertEquals("Ledu/ufl/cise/plpfa22/prog;", p.getOwnerDesc());
+    }
+
+    @Test
+    void testParallelResolution() throws PLPException {
+        int count = 64;
+        StringBuilder input = new StringBuilder("VAR x;\n");
+        for (int i = 0; i < count; i++) {
+            input.append("PROCEDURE p").append(i).append(";\nVAR y;\nPROCEDURE q;\nBEGIN x := y; y := x; CALL p")
+                    .append((i + 1) % count).append(" END;\n;\n");
+        }
+        input.append("CALL p0\n.");
+        ASTNode ast = CompilerComponentFactory.getParser(CompilerComponentFactory.getLexer(input.toString())).parse();
+        ast.visit(CompilerComponentFactory.getParallelScopeVisitor(), null);
+        Block block = ((Program) ast).block;
+        for (int i = 0; i < count; i++) {
+            Block p = block.procedureDecs.get(i).block;
+            List<Statement> statements = ((StatementBlock) p.procedureDecs.get(0).block.statement).statements;
+            StatementAssign first = (StatementAssign) statements.get(0);
+            assertEquals(block.varDecs.get(0), first.ident.getDec());
+            assertEquals(p.varDecs.get(0), ((ExpressionIdent) first.expression).getDec());
+            assertEquals(2, first.ident.getNest());
+            assertEquals(2, first.ident.getAddress().getHops());
+            assertEquals(block.procedureDecs.get((i + 1) % count), ((StatementCall) statements.get(2)).ident.getDec());
+        }
+        assertEquals(block.procedureDecs.get(0), ((StatementCall) block.statement).ident.getDec());
+        String duplicate = """
+				PROCEDURE a;
+					;
+				PROCEDURE b;
+					VAR z, z;
+					;
+				.
+				""";
+        ASTNode bad = CompilerComponentFactory.getParser(CompilerComponentFactory.getLexer(duplicate)).parse();
+        assertThrows(ScopeException.class, () -> bad.visit(CompilerComponentFactory.getParallelScopeVisitor(), null));
+    }
+
+    @Test
+    void testParallelDeepSiblings() throws PLPException {
+        int depth = 200000;
+        StringBuilder input = new StringBuilder("VAR x;\n");
+        for (int p = 0; p < 8; p++) {
+            input.append("PROCEDURE p").append(p).append(";\n");
+            input.append("BEGIN ".repeat(depth)).append("x := ").append(p).append(" END".repeat(depth)).append(";\n");
+        }
+        input.append("CALL p7\n.");
+        ASTNode ast = CompilerComponentFactory.getParser(CompilerComponentFactory.getLexer(input.toString())).parse();
+        // sibling bodies are resolved on large-stack threads, like the sequential traversal
+        ast.visit(CompilerComponentFactory.getParallelScopeVisitor(), null);
+        Block block = ((Program) ast).block;
+        for (ProcDec proc : block.procedureDecs) {
+            Statement s = proc.block.statement;
+            for (int i = 0; i < depth; i++) {
+                s = ((StatementBlock) s).statements.get(0);
+            }
+            assertEquals(block.varDecs.get(0), ((StatementAssign) s).ident.getDec());
+            assertEquals(1, ((StatementAssign) s).ident.getAddress().getHops());
+        }
+        assertEquals(block.procedureDecs.get(7), ((StatementCall) block.statement).ident.getDec());
+    }
+
+    @Test
+    void testSymbolMap() {
+        SymbolMap<Integer> empty = SymbolMap.empty();
+        SymbolMap<Integer> map = empty;
+        for (int i = 0; i < 5000; i++) {
+            map = map.put(i * 7919, i);
+        }
+        SymbolMap<Integer> updated = map.put(7919, -1).put(-1, 42);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, map.get(i * 7919));
+        }
+        // earlier versions are unaffected by later puts
+        assertEquals(1, map.get(7919));
+        assertEquals(-1, updated.get(7919));
+        assertEquals(42, updated.get(-1));
+        assertEquals(null, map.get(-1));
+        assertEquals(null, empty.get(0));
+    }
+
+    @Test
+    void testProcedureDeclaredAfterSiblingBody() throws PLPException {
+        String input = """
+				CONST p = 3, b = 1;
+				VAR q;
+				PROCEDURE x;
+					VAR a, x;
+					PROCEDURE p;
+						a := 1;
+					PROCEDURE b;
+						;
+					BEGIN CALL b; a := p END;
+				q := b
+				.
+				""";
+        ASTNode ast = getDecoratedAST(input);
+        Block block = ((Program) ast).block;
+        Block x = block.procedureDecs.get(0).block;
+        List<Statement> statements = ((StatementBlock) x.statement).statements;
+        // b is declared in x's block, after p's body; x's statement sees it, not the outer CONST b
+        Ident b = ((StatementCall) statements.get(0)).ident;
+        assertEquals(x.procedureDecs.get(1), b.getDec());
+        assertEquals(1, b.getDec().getNest());
+        assertEquals(x.procedureDecs.get(0), ((ExpressionIdent) ((StatementAssign) statements.get(1)).expression).getDec());
+        // outside x the constant is still the one in scope
+        assertEquals(block.constDecs.get(1), ((ExpressionIdent) ((StatementAssign) block.statement).expression).getDec());
+        // the parallel resolution binds the same way
+        ASTNode parallel = CompilerComponentFactory.getParser(CompilerComponentFactory.getLexer(input)).parse();
+        parallel.visit(CompilerComponentFactory.getParallelScopeVisitor(), null);
+        Block px = ((Program) parallel).block.procedureDecs.get(0).block;
+        assertEquals(px.procedureDecs.get(1), ((StatementCall) ((StatementBlock) px.statement).statements.get(0)).ident.getDec());
+    }
+
+    @Test
+    void testDeeplyNestedProcedures() throws PLPException {
+        int depth = 30000;
+        StringBuilder input = new StringBuilder("VAR x;\n");
+        for (int i = 0; i < depth; i++) {
+            input.append("PROCEDURE p").append(i).append(";\n");
+        }
+        input.append("x := x + 1");
+        input.append(";\n".repeat(depth)).append("x := 0\n.");
+        ASTNode ast = CompilerComponentFactory.getDeepParser(CompilerComponentFactory.getLexer(input.toString())).parse();
+        ast.visit(CompilerComponentFactory.getScopeVisitor(), null);
+        ast.visit(CompilerComponentFactory.getTypeInferenceVisitor(), null);
+        Block block = ((Program) ast).block;
+        for (int i = 0; i < depth; i++) {
+            block = block.procedureDecs.get(0).block;
+        }
+        // opening a scope does not copy the ones around it; names are only built on bind
+        Ident x = ((StatementAssign) block.statement).ident;
+        assertEquals(depth, x.getNest());
+        assertEquals(depth, x.getAddress().getHops());
+        assertEquals(depth, x.getAddress().getNest());
+    }
+
 }
@@ -0,0 +1,90 @@
+package edu.ufl.cise.plpfa22;
+
+// A persistent map from symbol ids to values: a hash array mapped trie of 32-way nodes keyed
+// five bits at a time. put copies only the path down to the entry it changes, so every
+// version stays valid and shares everything else with the versions built from it.
+final class SymbolMap<V> {
+
+    private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+    private static final SymbolMap<?> EMPTY = new SymbolMap<>(EMPTY_NODE);
+
+    private final Node root;
+
+    private SymbolMap(Node root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> SymbolMap<V> empty() {
+        return (SymbolMap<V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        Node node = root;
+        for (int shift = 0; ; shift += 5) {
+            int bit = 1 << ((key >>> shift) & 31);
+            if ((node.bitmap & bit) == 0)
+                return null;
+            Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (slot instanceof Leaf) {
+                Leaf leaf = (Leaf) slot;
+                return leaf.key == key ? (V) leaf.value : null;
+            }
+            node = (Node) slot;
+        }
+    }
+
+    SymbolMap<V> put(int key, V value) {
+        return new SymbolMap<>(put(root, 0, key, value));
+    }
+
+    // distinct keys differ in some five bit chunk, so shift never passes 30
+    private static Node put(Node node, int shift, int key, Object value) {
+        int bit = 1 << ((key >>> shift) & 31);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            Object[] slots = new Object[node.slots.length + 1];
+            System.arraycopy(node.slots, 0, slots, 0, index);
+            slots[index] = new Leaf(key, value);
+            System.arraycopy(node.slots, index, slots, index + 1, node.slots.length - index);
+            return new Node(node.bitmap | bit, slots);
+        }
+        Object slot = node.slots[index];
+        Object replacement;
+        if (slot instanceof Leaf) {
+            Leaf leaf = (Leaf) slot;
+            if (leaf.key == key)
+                replacement = new Leaf(key, value);
+            else
+                replacement = put(put(EMPTY_NODE, shift + 5, leaf.key, leaf.value), shift + 5, key, value);
+        }
+        else {
+            replacement = put((Node) slot, shift + 5, key, value);
+        }
+        Object[] slots = node.slots.clone();
+        slots[index] = replacement;
+        return new Node(node.bitmap, slots);
+    }
+
+    private static final class Node {
+        final int bitmap;
+        // a Leaf or a Node for each bit set in bitmap, in bit order
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Leaf {
+        final int key;
+        final Object value;
+
+        Leaf(int key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
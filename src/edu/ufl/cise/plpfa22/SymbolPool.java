@@ -0,0 +1,139 @@
+package edu.ufl.cise.plpfa22;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The identifier names of one compilation. Each distinct name is interned once and gets a
+// dense int id and a canonical String, so later phases compare and hash ints. Every lexer
+// starts a pool of its own, shared only by the chunks of a ParallelLexer and by streams
+// re-lexed from it, so a long-running process does not keep the names of earlier programs.
+// Names are split over stripes by hash, so chunks interning different names rarely wait
+// on each other.
+public class SymbolPool {
+
+    private static final int STRIPES = 16;
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final VarHandle NAME = MethodHandles.arrayElementVarHandle(String[].class);
+
+    private final Stripe[] stripes;
+    private final AtomicInteger size;
+    // names by id in fixed pages that never move once allocated, so name needs no lock
+    private volatile String[][] pages;
+
+    public SymbolPool() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        size = new AtomicInteger();
+        pages = new String[][] { new String[PAGE_SIZE] };
+    }
+
+    public int intern(char[] text, int start, int length) {
+        int hash = hash(text, start, length);
+        // the slot uses the low bits, so pick the stripe from the high bits of a remix
+        Stripe stripe = stripes[(hash * 0x9E3779B9) >>> 28];
+        synchronized (stripe) {
+            int mask = stripe.table.length - 1;
+            int slot = hash & mask;
+            while (stripe.table[slot] != 0) {
+                int id = stripe.table[slot] - 1;
+                if (stripe.hashes[slot] == hash && matches(name(id), text, start, length)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int id = size.getAndIncrement();
+            NAME.setRelease(page(id), id & (PAGE_SIZE - 1), new String(text, start, length));
+            stripe.table[slot] = id + 1;
+            stripe.hashes[slot] = hash;
+            // keep the table at most half full
+            if (++stripe.size * 2 > stripe.table.length) {
+                stripe.rehash();
+            }
+            return id;
+        }
+    }
+
+    public int intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    // the name of an id intern returned
+    public String name(int id) {
+        return (String) NAME.getAcquire(pages[id >>> PAGE_BITS], id & (PAGE_SIZE - 1));
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    // the page id is stored in, allocated if it is the first id there
+    private String[] page(int id) {
+        int index = id >>> PAGE_BITS;
+        String[][] current = pages;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = pages;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            }
+            if (current[index] == null) {
+                current[index] = new String[PAGE_SIZE];
+            }
+            pages = current;
+            return current[index];
+        }
+    }
+
+    // open addressing; each slot holds id + 1, or 0 if empty, and the hash of that name
+    private static final class Stripe {
+        int[] table = new int[64];
+        int[] hashes = new int[64];
+        int size;
+
+        void rehash() {
+            int[] oldTable = table;
+            int[] oldHashes = hashes;
+            table = new int[oldTable.length * 2];
+            hashes = new int[oldTable.length * 2];
+            int mask = table.length - 1;
+            for (int i = 0; i < oldTable.length; i++) {
+                if (oldTable[i] != 0) {
+                    int slot = oldHashes[i] & mask;
+                    while (table[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table[slot] = oldTable[i];
+                    hashes[slot] = oldHashes[i];
+                }
+            }
+        }
+    }
+
+    private static int hash(char[] text, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + text[i];
+        }
+        // spread the low bits used for the slot
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String name, char[] text, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != text[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
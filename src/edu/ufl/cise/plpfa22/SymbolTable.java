@@ -1,40 +1,81 @@
 package edu.ufl.cise.plpfa22;
 
+import edu.ufl.cise.plpfa22.ast.Address;
 import edu.ufl.cise.plpfa22.ast.ConstDec;
 import edu.ufl.cise.plpfa22.ast.Declaration;
+import edu.ufl.cise.plpfa22.ast.Frame;
 import edu.ufl.cise.plpfa22.ast.ProcDec;
 import edu.ufl.cise.plpfa22.ast.VarDec;
 
 import java.util.*;
 
 public class SymbolTable {
-    List<SymbolNode> nodes;
+    // innermost visible declaration of each symbol; the ones it shadows hang off it
+    Map<Integer, SymbolNode> visible;
+    // symbols declared in the open scopes, in order; marks says where each scope starts
+    int[] declared;
+    int declaredSize;
+    Stack<Integer> marks;
     Stack<Integer> scopeStack;
+    // last procedure declared with each symbol, in any scope
+    Map<Integer, ProcDec> procedures;
+    // the innermost open scope, linked to the ones enclosing it, and the addresses resolved
+    // from each open scope; every use of a declaration within a scope shares one address
+    Frame frame;
+    Stack<Map<Declaration, Address>> addresses;
     int scopeId;
     int nest;
 
     public SymbolTable() {
-        nodes = new ArrayList<>();
+        visible = new HashMap<>();
+        declared = new int[64];
+        declaredSize = 0;
+        marks = new Stack<>();
         scopeStack = new Stack<>();
+        procedures = new HashMap<>();
+        addresses = new Stack<>();
         scopeId = 0;
         nest = 0;
     }
 
     public void init() {
+        visible.clear();
+        declaredSize = 0;
+        marks.clear();
+        marks.push(0);
         scopeId = 0;
         scopeStack.clear();
         scopeStack.push(scopeId);
+        frame = Frame.root();
+        addresses.clear();
+        addresses.push(new HashMap<>());
         nest = 0;
     }
 
-    public void enterScope() {
+    // the scope of proc's body
+    public void enterScope(ProcDec proc) {
         scopeId++;
         scopeStack.push(scopeId);
+        marks.push(declaredSize);
+        frame = frame.enter(getIdentText(proc));
+        addresses.push(new HashMap<>());
         nest++;
     }
 
     public void closeScope() {
         scopeStack.pop();
+        frame = frame.getOuter();
+        addresses.pop();
+        // uncover whatever this scope's declarations shadowed
+        int mark = marks.pop();
+        while (declaredSize > mark) {
+            int symbol = declared[--declaredSize];
+            SymbolNode shadowed = visible.get(symbol).getNext();
+            if (shadowed == null)
+                visible.remove(symbol);
+            else
+                visible.put(symbol, shadowed);
+        }
         nest--;
     }
 
@@ -43,56 +84,67 @@ public class SymbolTable {
             throw new ScopeException("Identifier already exists in same scope.");
         }
         dec.setNest(nest);
-        nodes.add(new SymbolNode(scopeId, dec));
+        int symbol = getSymbol(dec);
+        // tagged with the scope it is declared in, so a procedure declared after a sibling's
+        // body still belongs to the enclosing block (not to the scope entered last)
+        visible.put(symbol, new SymbolNode(scopeStack.peek(), dec, visible.get(symbol)));
+        if (declaredSize == declared.length)
+            declared = Arrays.copyOf(declared, declaredSize * 2);
+        declared[declaredSize++] = symbol;
+    }
+
+    // procedures are visible from anywhere once declared; the last one declared wins
+    public void newProcedure(ProcDec dec) {
+        procedures.put(getSymbol(dec), dec);
     }
 
+    // the innermost declaration in an open scope
     public Declaration lookup(IToken ident) {
-        List<SymbolNode> matches = new ArrayList<>();
-        // find all matching idents in symbolTable
-        for (SymbolNode entry : nodes) {
-            Declaration dec = entry.getDec();
-            String identStr = String.copyValueOf(ident.getText());
-            if (getIdentText(dec).equals(identStr)) {
-                matches.add(new SymbolNode(entry.getId(), dec));
-            }
-        }
-        // get the one in the outermost scope
-        // ignore ones in adjacent scopes
-        Stack<Integer> tempScope = (Stack<Integer>)scopeStack.clone();
-        while (!tempScope.empty()) {
-            int id = tempScope.pop();
-            for (SymbolNode match : matches)
-                if (match.getId() == id)
-                    return match.getDec();
-        }
-        // procedures are fine from anywhere
-        for (int i = matches.size() - 1; i >= 0; i--) {
-            if (matches.get(i).getDec() instanceof ProcDec)
-                return matches.get(i).getDec();
-        }
-        return null;
+        SymbolNode node = visible.get(ident.getSymbol());
+        return node == null ? null : node.getDec();
+    }
+
+    // procedures are fine from anywhere; only final once every procedure has been declared
+    public ProcDec lookupProcedure(IToken ident) {
+        return procedures.get(ident.getSymbol());
+    }
+
+    // how a use in the innermost open scope reaches dec
+    public Address address(Declaration dec) {
+        return addresses.peek().computeIfAbsent(dec, d -> address(frame, d));
+    }
+
+    public Frame currentFrame() {
+        return frame;
+    }
+
+    public static Address address(Frame frame, Declaration dec) {
+        int nest = frame.getDepth();
+        int hops = Math.max(0, Math.min(nest, nest - dec.getNest()));
+        return new Address(frame, hops, getIdentText(dec));
     }
 
     public boolean searchCurrScope(Declaration dec) {
-        if (!scopeStack.empty()) {
-            int currId = scopeStack.peek();
-            for (SymbolNode entry : nodes) {
-                if (currId == (Integer) entry.getId()
-                        && getIdentText(entry.getDec()).equals(getIdentText(dec))) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        SymbolNode node = visible.get(getSymbol(dec));
+        return node != null && !scopeStack.empty() && node.getId() == scopeStack.peek();
+    }
+
+    public static int getSymbol(Declaration dec) {
+        if (dec instanceof ConstDec)
+            return ((ConstDec)dec).ident.getSymbol();
+        else if (dec instanceof VarDec)
+            return ((VarDec)dec).ident.getSymbol();
+        else
+            return ((ProcDec)dec).ident.getSymbol();
     }
 
-    public String getIdentText(Declaration dec) {
+    public static String getIdentText(Declaration dec) {
         if (dec instanceof ConstDec)
-            return String.copyValueOf(((ConstDec)dec).ident.getText());
+            return String.valueOf(((ConstDec)dec).ident.getText());
         else if (dec instanceof VarDec)
-            return String.copyValueOf(((VarDec)dec).ident.getText());
+            return String.valueOf(((VarDec)dec).ident.getText());
         else
-            return String.copyValueOf(((ProcDec)dec).ident.getText());
+            return String.valueOf(((ProcDec)dec).ident.getText());
     }
 
 }
@@ -101,13 +153,17 @@ class SymbolNode {
 
     int scopeId;
     Declaration dec;
+    SymbolNode next;
 
-    public SymbolNode(int scopeId, Declaration dec) {
+    public SymbolNode(int scopeId, Declaration dec, SymbolNode next) {
         this.scopeId = scopeId;
         this.dec = dec;
+        this.next = next;
     }
 
     public int getId() { return scopeId; }
 
     public Declaration getDec() { return dec; }
+
+    public SymbolNode getNext() { return next; }
 }
@@ -5,14 +5,27 @@ import java.util.Arrays;
 public class Token implements IToken{
 
     private Kind kind;
+    // text is not copied; the token refers to its range in the lexer's source
+    private char[] source;
+    private int offset;
+    private int length;
+    private int line;
+    private int col;
+    // int value of a NUM_LIT or symbol id of an IDENT, computed by the lexer
+    private int value;
     private char[] text;
-    private SourceLocation source;
+    private String stringValue;
+    private LexicalException error;
 
 
-    public Token(Kind kind, char[] text, int line, int col) {
+    public Token(Kind kind, char[] source, int offset, int length, int line, int col, int value) {
         this.kind = kind;
-        this.text = text;
-        this.source = new SourceLocation(line, col);
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.line = line;
+        this.col = col;
+        this.value = value;
     }
 
     public Kind getKind() {
@@ -20,36 +33,87 @@ public class Token implements IToken{
     }
 
     public char[] getText() {
+        // materialized on first request only
+        if (text == null) {
+            text = Arrays.copyOfRange(source, offset, offset + length);
+        }
         return text;
     }
 
-    public SourceLocation getSourceLocation() {
+    char[] getSource() {
         return source;
     }
 
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return col;
+    }
+
+    public SourceLocation getSourceLocation() {
+        return new SourceLocation(line, col);
+    }
+
+    int getValue() {
+        return value;
+    }
+
     public int getIntValue() {
-        return Integer.parseInt(String.valueOf(text));
+        return value;
+    }
+
+    public int getSymbol() {
+        return value;
     }
 
     public boolean getBooleanValue() {
-        return Boolean.parseBoolean(String.valueOf(text));
+        // the only BOOLEAN_LITs are TRUE and FALSE
+        return source[offset] == 'T';
     }
 
     public String getStringValue() {
-        String literal = "";
-        for (int i = 1; i < text.length - 1; i++) {
-            if (text[i] == '\\') {
-                i++;
-                literal += createEscape(text[i]);
-            }
-            else {
-                literal += text[i];
+        // decoded once, in a single pass
+        if (stringValue == null) {
+            StringBuilder literal = new StringBuilder(length);
+            for (int i = offset + 1; i < offset + length - 1; i++) {
+                if (source[i] == '\\') {
+                    i++;
+                    int escaped = escapeValue(source[i]);
+                    literal.append(escaped < 0 ? ' ' : (char) escaped);
+                }
+                else {
+                    literal.append(source[i]);
+                }
             }
+            stringValue = literal.toString();
         }
-        return String.valueOf(literal);
+        return stringValue;
+    }
+
+    void setStringValue(String stringValue) {
+        this.stringValue = stringValue;
+    }
+
+    public LexicalException getError() {
+        return error;
+    }
+
+    void setError(LexicalException error) {
+        this.error = error;
     }
 
-    private char createEscape(char c) {
+    // the character an escape sequence stands for, or -1 if c does not form a valid escape
+    static int escapeValue(char c) {
         switch (c) {
             case 'b':
                 return '\b';
@@ -68,7 +132,7 @@ public class Token implements IToken{
             case '\\':
                 return '\\';
             default:
-                return ' ';
+                return -1;
         }
     }
 }
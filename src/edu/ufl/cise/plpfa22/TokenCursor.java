@@ -0,0 +1,34 @@
+package edu.ufl.cise.plpfa22;
+
+import edu.ufl.cise.plpfa22.IToken.Kind;
+
+public interface TokenCursor {
+
+    /**
+     * Return the Kind of the current token.
+     * @return
+     * @throws LexicalException
+     */
+    Kind kind() throws LexicalException;
+
+    /**
+     * Return the Kind of the token k positions after the current one, or EOF past the end of input.
+     * @param k
+     * @return
+     * @throws LexicalException
+     */
+    Kind kind(int k) throws LexicalException;
+
+    /**
+     * Return the current token.  Repeated calls at the same position return the same IToken.
+     * @return
+     * @throws LexicalException
+     */
+    IToken token() throws LexicalException;
+
+    /**
+     * Move to the next token.  Once the current token is EOF the position does not change.
+     * @throws LexicalException
+     */
+    void advance() throws LexicalException;
+}
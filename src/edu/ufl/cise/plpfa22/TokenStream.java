@@ -0,0 +1,354 @@
+package edu.ufl.cise.plpfa22;
+
+import edu.ufl.cise.plpfa22.IToken.Kind;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TokenStream {
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // one entry per token in each array; text stays in the source
+    private char[] source;
+    private final boolean ownsSource;
+    private int sourceSize;
+    private byte[] kinds;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] lines;
+    private int[] columns;
+    // int value of NUM_LITs and symbol id of IDENTs
+    private int[] values;
+    private int size;
+    // problems behind ERROR tokens, whose value is an index into this list
+    private List<LexicalException> errors;
+    // the pool the symbol ids come from
+    private final SymbolPool symbols;
+
+    // tokens that refer to ranges of the given source
+    public TokenStream(char[] source) {
+        this(source, new SymbolPool());
+    }
+
+    TokenStream(char[] source, SymbolPool symbols) {
+        this(source, false, symbols);
+    }
+
+    // tokens from an arbitrary ILexer; their text is copied into a buffer owned by the stream
+    public TokenStream() {
+        this(new SymbolPool());
+    }
+
+    TokenStream(SymbolPool symbols) {
+        this(new char[256], true, symbols);
+    }
+
+    private TokenStream(char[] source, boolean ownsSource, SymbolPool symbols) {
+        this.source = source;
+        this.ownsSource = ownsSource;
+        this.sourceSize = 0;
+        this.kinds = new byte[64];
+        this.offsets = new int[64];
+        this.lengths = new int[64];
+        this.lines = new int[64];
+        this.columns = new int[64];
+        this.values = new int[64];
+        this.size = 0;
+        this.errors = new ArrayList<>();
+        this.symbols = symbols;
+    }
+
+    public static TokenStream of(ILexer lexer) throws LexicalException {
+        if (lexer instanceof Lexer) {
+            return ((Lexer) lexer).tokenize();
+        }
+        if (lexer instanceof BufferedLexer) {
+            return ((BufferedLexer) lexer).getTokens();
+        }
+        TokenStream stream = new TokenStream();
+        IToken token;
+        do {
+            token = lexer.next();
+            stream.add(token);
+        } while (!token.getKind().equals(Kind.EOF));
+        return stream;
+    }
+
+    public void add(Kind kind, int offset, int length, int line, int column, int value) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        offsets[size] = offset;
+        lengths[size] = length;
+        lines[size] = line;
+        columns[size] = column;
+        values[size] = value;
+        size++;
+    }
+
+    public void add(IToken token) {
+        if (token instanceof Token && ((Token) token).getSource() == source) {
+            Token t = (Token) token;
+            int value = t.getKind().equals(Kind.ERROR) ? addError(t.getError()) : t.getValue();
+            add(t.getKind(), t.getOffset(), t.getLength(), t.getLine(), t.getColumn(), value);
+            return;
+        }
+        char[] text = token.getText();
+        IToken.SourceLocation loc = token.getSourceLocation();
+        int value = 0;
+        if (token.getKind().equals(Kind.ERROR)) {
+            value = addError(token.getError());
+        }
+        else if (token.getKind().equals(Kind.NUM_LIT)) {
+            value = token.getIntValue();
+        }
+        else if (token.getKind().equals(Kind.IDENT)) {
+            value = token.getSymbol();
+        }
+        append(token.getKind(), text, 0, text.length, loc.line(), loc.column(), value);
+    }
+
+    // adds a token whose text is copied from text[start, start + length) into the stream's own buffer
+    public void append(Kind kind, char[] text, int start, int length, int line, int column, int value) {
+        if (!ownsSource) {
+            throw new IllegalArgumentException("Token does not belong to this stream's source");
+        }
+        if (sourceSize + length > source.length) {
+            source = Arrays.copyOf(source, Math.max(source.length * 2, sourceSize + length));
+        }
+        System.arraycopy(text, start, source, sourceSize, length);
+        add(kind, sourceSize, length, line, column, value);
+        sourceSize += length;
+    }
+
+    // appends the first count tokens of other, which must share this stream's source
+    public void addAll(TokenStream other, int count) {
+        if (other.source != source) {
+            throw new IllegalArgumentException("Tokens do not belong to this stream's source");
+        }
+        addRange(other, 0, count, 0, 0);
+    }
+
+    // appends tokens [from, to) of other with their offsets and lines shifted
+    void addRange(TokenStream other, int from, int to, int offsetDelta, int lineDelta) {
+        if (ownsSource) {
+            throw new IllegalArgumentException("Tokens do not belong to this stream's source");
+        }
+        int count = to - from;
+        int capacity = kinds.length;
+        while (size + count > capacity) {
+            capacity *= 2;
+        }
+        if (capacity != kinds.length) {
+            kinds = Arrays.copyOf(kinds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(other.kinds, from, kinds, size, count);
+        System.arraycopy(other.lengths, from, lengths, size, count);
+        System.arraycopy(other.columns, from, columns, size, count);
+        System.arraycopy(other.values, from, values, size, count);
+        for (int i = 0; i < count; i++) {
+            offsets[size + i] = other.offsets[from + i] + offsetDelta;
+            lines[size + i] = other.lines[from + i] + lineDelta;
+        }
+        if (!other.errors.isEmpty() && other != this) {
+            for (int i = size; i < size + count; i++) {
+                if (kinds[i] == Kind.ERROR.ordinal()) {
+                    values[i] = addError(other.errors.get(values[i]));
+                }
+            }
+        }
+        size += count;
+    }
+
+    public int addError(LexicalException error) {
+        errors.add(error);
+        return errors.size() - 1;
+    }
+
+    public List<LexicalException> getErrors() {
+        return errors;
+    }
+
+    // columns are written whole, so reading them back is a few bulk copies
+    public void write(DataOutputStream out) throws IOException {
+        int sourceLength = ownsSource ? sourceSize : source.length;
+        out.writeInt(sourceLength);
+        for (int i = 0; i < sourceLength; i++) {
+            out.writeChar(source[i]);
+        }
+        out.writeInt(size);
+        out.write(kinds, 0, size);
+        for (int[] column : new int[][] { offsets, lengths, lines, columns, values }) {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(column[i]);
+            }
+        }
+        out.writeInt(errors.size());
+        for (LexicalException error : errors) {
+            out.writeInt(error.getMessage().length());
+            out.writeChars(error.getMessage());
+        }
+    }
+
+    // the stream read back owns its text; symbol ids are interned again, into a pool of its own
+    public static TokenStream read(ByteBuffer in) throws IOException {
+        char[] text = new char[count(in, 2)];
+        in.asCharBuffer().get(text);
+        in.position(in.position() + text.length * 2);
+        TokenStream stream = new TokenStream(text, true, new SymbolPool());
+        stream.sourceSize = text.length;
+        int size = count(in, 21);
+        stream.kinds = new byte[Math.max(size, 1)];
+        in.get(stream.kinds, 0, size);
+        stream.offsets = readInts(in, size);
+        stream.lengths = readInts(in, size);
+        stream.lines = readInts(in, size);
+        stream.columns = readInts(in, size);
+        stream.values = readInts(in, size);
+        stream.size = size;
+        for (int i = 0; i < size; i++) {
+            if (stream.kinds[i] == Kind.IDENT.ordinal()) {
+                stream.values[i] = stream.symbols.intern(text, stream.offsets[i], stream.lengths[i]);
+            }
+        }
+        int errorCount = count(in, 4);
+        for (int i = 0; i < errorCount; i++) {
+            char[] message = new char[count(in, 2)];
+            in.asCharBuffer().get(message);
+            in.position(in.position() + message.length * 2);
+            stream.errors.add(new LexicalException(new String(message), null, false, false));
+        }
+        return stream;
+    }
+
+    // a length read back from a serialized entry, checked against what is left of it
+    private static int count(ByteBuffer in, int width) throws IOException {
+        int n = in.remaining() < 4 ? -1 : in.getInt();
+        if (n < 0 || (long) n * width > in.remaining()) {
+            throw new IOException("Truncated or corrupt entry");
+        }
+        return n;
+    }
+
+    private static int[] readInts(ByteBuffer in, int n) {
+        int[] ints = new int[Math.max(n, 1)];
+        in.asIntBuffer().get(ints, 0, n);
+        in.position(in.position() + n * 4);
+        return ints;
+    }
+
+    char[] getSource() {
+        return source;
+    }
+
+    boolean ownsSource() {
+        return ownsSource;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Kind getKind(int i) {
+        return KINDS[kinds[i]];
+    }
+
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    public int getLine(int i) {
+        return lines[i];
+    }
+
+    public int getColumn(int i) {
+        return columns[i];
+    }
+
+    public int getValue(int i) {
+        return values[i];
+    }
+
+    public SymbolPool getSymbols() {
+        return symbols;
+    }
+
+    // builds a token object; only needed for tokens that end up in the AST
+    public IToken getToken(int i) {
+        Token token = new Token(KINDS[kinds[i]], source, offsets[i], lengths[i], lines[i], columns[i], values[i]);
+        if (token.getKind().equals(Kind.ERROR)) {
+            token.setError(errors.get(values[i]));
+        }
+        return token;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the stream without allocating.  The stream must end with an EOF token; the cursor stops there.
+     */
+    public class Cursor implements TokenCursor {
+        private int index;
+        private IToken current;
+
+        private Cursor() {
+            this.index = 0;
+            this.current = null;
+        }
+
+        public Kind kind() {
+            return KINDS[kinds[index]];
+        }
+
+        public Kind kind(int k) {
+            return KINDS[kinds[Math.min(index + k, size - 1)]];
+        }
+
+        // repeated calls at the same position return the same IToken
+        public IToken token() {
+            if (current == null) {
+                current = getToken(index);
+            }
+            return current;
+        }
+
+        public void advance() {
+            if (index < size - 1) {
+                index++;
+                current = null;
+            }
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public void seek(int index) {
+            this.index = index;
+            this.current = null;
+        }
+    }
+}
@@ -31,7 +31,7 @@ public class TypeVisitor implements ASTVisitor {
         return null;
     }
     public Object visitBlock(Block block, Object arg) throws PLPException {
-
+        LargeStack.checkInterrupted();
         for (ConstDec con : block.constDecs)
             visitConstDec(con, arg);
         for (VarDec var : block.varDecs)
@@ -127,6 +127,7 @@ public class TypeVisitor implements ASTVisitor {
     }
 
     public Object visitStatementBlock(StatementBlock statementBlock, Object arg) throws PLPException {
+        LargeStack.checkInterrupted();
         for (Statement statement : statementBlock.statements)
             visitStatement(statement, arg);
         return null;
@@ -6,34 +6,106 @@ import java.util.*;
 
 public class Visitor implements ASTVisitor {
     SymbolTable symbolTable;
-    boolean lastPass;
+    // uses not visible from where they appear; they may name a procedure declared later
+    List<ASTNode> unresolved;
+    // the scopes open at each unresolved use, for its address
+    List<Frame> unresolvedFrames;
+    // resolve sibling procedure bodies concurrently; the open scope is passed as arg
+    boolean parallel;
 
     public Visitor() {
-        lastPass = false;
         symbolTable = new SymbolTable();
+        unresolved = new ArrayList<>();
+        unresolvedFrames = new ArrayList<>();
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
     }
 
     public Object visitProgram(Program program, Object arg) throws PLPException {
+        symbolTable.procedures.clear();
+        unresolved.clear();
+        unresolvedFrames.clear();
         symbolTable.init();
-        visitBlock(program.block, arg);
-        lastPass = true;
-        symbolTable.init();
-        visitBlock(program.block, arg);
+        if (parallel) {
+            Scope scope = resolve(program.block, null, null);
+            unresolved.addAll(scope.deferred);
+            unresolvedFrames.addAll(scope.deferredFrames);
+            declareProcedures(program.block);
+        }
+        else {
+            visitBlock(program.block, arg);
+        }
         symbolTable.closeScope();
+        // every procedure is known now
+        for (int i = 0; i < unresolved.size(); i++) {
+            ASTNode use = unresolved.get(i);
+            Declaration dec = symbolTable.lookupProcedure(use.firstToken);
+            if (dec == null)
+                throw new ScopeException("Could not find declaration.");
+            Address address = SymbolTable.address(unresolvedFrames.get(i), dec);
+            if (use instanceof Ident) {
+                ((Ident) use).setDec(dec);
+                ((Ident) use).setAddress(address);
+            }
+            else {
+                ((ExpressionIdent) use).setDec(dec);
+                ((ExpressionIdent) use).setAddress(address);
+            }
+        }
         return null;
     }
 
     public Object visitBlock(Block block, Object arg) throws PLPException {
+        // everything the block declares is visible throughout it, procedure bodies included
         for (ConstDec con : block.constDecs)
             visitConstDec(con, arg);
         for (VarDec var : block.varDecs)
             visitVarDec(var, arg);
+        for (ProcDec proc : block.procedureDecs)
+            symbolTable.newIdentifier(proc);
         for (ProcDec proc : block.procedureDecs)
             visitProcedure(proc, arg);
         visitStatement(block.statement, arg);
         return null;
     }
 
+    // the scope of block, the body of proc (null for the program) inside outer
+    private Scope resolve(Block block, Scope outer, ProcDec proc) throws PLPException {
+        Frame frame = Scope.frame(outer, proc);
+        Scope scope = new Scope(outer, frame, block);
+        List<ProcDec> procs = block.procedureDecs;
+        if (!parallel || procs.size() < 2) {
+            for (ProcDec p : procs)
+                scope.include((Scope) visitProcedure(p, scope));
+        }
+        else {
+            // on large-stack threads like the sequential traversal; all reports the first sibling
+            // to fail, in order, as the sequential traversal would
+            List<LargeStack.Task<Object>> tasks = new ArrayList<>();
+            for (ProcDec p : procs)
+                tasks.add(() -> visitProcedure(p, scope));
+            for (Object inner : LargeStack.all(tasks))
+                scope.include((Scope) inner);
+        }
+        visitStatement(block.statement, scope);
+        return scope;
+    }
+
+    // in the order the sequential traversal declares them, so the same procedure wins
+    private void declareProcedures(Block block) {
+        for (ProcDec proc : block.procedureDecs) {
+            symbolTable.newProcedure(proc);
+            declareProcedures(proc.block);
+        }
+    }
+
+    private void defer(ASTNode use, Frame frame) {
+        unresolved.add(use);
+        unresolvedFrames.add(frame);
+    }
+
     public Object visitStatement(Statement statement, Object arg) throws PLPException {
         if (statement instanceof StatementAssign)
             visitStatementAssign((StatementAssign) statement, arg);
@@ -76,6 +148,7 @@ public class Visitor implements ASTVisitor {
     }
 
     public Object visitStatementBlock(StatementBlock statementBlock, Object arg) throws PLPException {
+        LargeStack.checkInterrupted();
         for (Statement statement : statementBlock.statements)
             visitStatement(statement, arg);
         return null;
@@ -118,12 +191,27 @@ public class Visitor implements ASTVisitor {
     }
 
     public Object visitExpressionIdent(ExpressionIdent expressionIdent, Object arg) throws PLPException {
-        if (lastPass) {
-            expressionIdent.setNest(symbolTable.nest);
-            Declaration dec = symbolTable.lookup(expressionIdent.firstToken);
-            if (dec == null)
-                throw new ScopeException("Could not find declaration.");
+        if (arg instanceof Scope) {
+            Scope scope = (Scope) arg;
+            expressionIdent.setNest(scope.nest);
+            Declaration dec = scope.lookup(expressionIdent.firstToken.getSymbol());
+            if (dec == null) {
+                scope.defer(expressionIdent);
+            }
+            else {
+                expressionIdent.setDec(dec);
+                expressionIdent.setAddress(scope.address(dec));
+            }
+            return null;
+        }
+        expressionIdent.setNest(symbolTable.nest);
+        Declaration dec = symbolTable.lookup(expressionIdent.firstToken);
+        if (dec == null) {
+            defer(expressionIdent, symbolTable.currentFrame());
+        }
+        else {
             expressionIdent.setDec(dec);
+            expressionIdent.setAddress(symbolTable.address(dec));
         }
         return null;
     }
@@ -141,36 +229,48 @@ public class Visitor implements ASTVisitor {
     }
 
     public Object visitProcedure(ProcDec procDec, Object arg) throws PLPException {
-        if (!lastPass) {
-            symbolTable.newIdentifier(procDec);
-        }
-        symbolTable.enterScope();
+        LargeStack.checkInterrupted();
+        if (arg instanceof Scope)
+            return resolve(procDec.block, (Scope) arg, procDec);
+        symbolTable.newProcedure(procDec);
+        symbolTable.enterScope(procDec);
         visitBlock(procDec.block, arg);
         symbolTable.closeScope();
         return null;
     }
 
     public Object visitConstDec(ConstDec constDec, Object arg) throws PLPException {
-        if (!lastPass) {
-            symbolTable.newIdentifier(constDec);
-        }
+        symbolTable.newIdentifier(constDec);
         return null;
     }
 
     public Object visitVarDec(VarDec varDec, Object arg) throws PLPException {
-        if (!lastPass) {
-            symbolTable.newIdentifier(varDec);
-        }
+        symbolTable.newIdentifier(varDec);
         return null;
     }
 
     public Object visitIdent(Ident ident, Object arg) throws PLPException {
-        if (lastPass) {
-            ident.setNest(symbolTable.nest);
-            Declaration dec = symbolTable.lookup(ident.firstToken);
-            if (dec == null)
-                throw new ScopeException("Could not find declaration.");
+        if (arg instanceof Scope) {
+            Scope scope = (Scope) arg;
+            ident.setNest(scope.nest);
+            Declaration dec = scope.lookup(ident.firstToken.getSymbol());
+            if (dec == null) {
+                scope.defer(ident);
+            }
+            else {
+                ident.setDec(dec);
+                ident.setAddress(scope.address(dec));
+            }
+            return null;
+        }
+        ident.setNest(symbolTable.nest);
+        Declaration dec = symbolTable.lookup(ident.firstToken);
+        if (dec == null) {
+            defer(ident, symbolTable.currentFrame());
+        }
+        else {
             ident.setDec(dec);
+            ident.setAddress(symbolTable.address(dec));
         }
         return null;
     }
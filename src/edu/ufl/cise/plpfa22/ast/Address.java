@@ -0,0 +1,99 @@
+package edu.ufl.cise.plpfa22.ast;
+
+import edu.ufl.cise.plpfa22.ast.Types.Type;
+
+// Where a use finds its declaration at run time: hops static links out from the instance of
+// the procedure it appears in, then a field of that instance (for a procedure, the instance
+// that encloses it). Scope resolution only links the scopes open at the use; the class names
+// are spelled out once, when code generation binds the address to its program class.
+public class Address {
+
+	// the innermost scope open at the use
+	final Frame frame;
+	final int hops;
+	final String name;
+
+	String programClass;
+	String owner;
+	String ownerDesc;
+	String desc;
+	String[] linkOwners;
+	String[] linkFields;
+	String[] linkDescs;
+
+	public Address(Frame frame, int hops, String name) {
+		this.frame = frame;
+		this.hops = hops;
+		this.name = name;
+	}
+
+	public int getHops() {
+		return hops;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// the nest of the use
+	public int getNest() {
+		return frame.depth;
+	}
+
+	// names every class on the path, once per program class
+	public void bind(String programClass, Type type) {
+		if (programClass.equals(this.programClass))
+			return;
+		linkOwners = new String[hops];
+		linkFields = new String[hops];
+		linkDescs = new String[hops];
+		Frame f = frame;
+		for (int i = 0; i < hops; i++) {
+			linkOwners[i] = f.className(programClass);
+			linkFields[i] = "this$" + (f.depth - 1);
+			linkDescs[i] = "L" + f.outer.className(programClass) + ";";
+			f = f.outer;
+		}
+		owner = f.className(programClass);
+		ownerDesc = "L" + owner + ";";
+		desc = type == null ? null : switch (type) {
+			case NUMBER -> "I";
+			case BOOLEAN -> "Z";
+			case STRING -> "Ljava/lang/String;";
+			default -> null;
+		};
+		this.programClass = programClass;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public String getOwnerDesc() {
+		return ownerDesc;
+	}
+
+	public String getDesc() {
+		return desc;
+	}
+
+	public String getLinkOwner(int i) {
+		return linkOwners[i];
+	}
+
+	public String getLinkField(int i) {
+		return linkFields[i];
+	}
+
+	public String getLinkDesc(int i) {
+		return linkDescs[i];
+	}
+
+	@Override
+	public String toString() {
+		Frame owner = frame;
+		for (int i = 0; i < hops; i++)
+			owner = owner.outer;
+		return "Address [hops=" + hops + ", owner=" + owner + ", name=" + name + "]";
+	}
+}
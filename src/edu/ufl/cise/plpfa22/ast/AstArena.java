@@ -0,0 +1,640 @@
+package edu.ufl.cise.plpfa22.ast;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ufl.cise.plpfa22.IToken;
+import edu.ufl.cise.plpfa22.PLPException;
+import edu.ufl.cise.plpfa22.TokenStream;
+import edu.ufl.cise.plpfa22.ast.Types.Type;
+
+// A whole AST flattened into primitive arrays, one entry per node. Children are node indexes,
+// tokens are indexes into a packed TokenStream, and lists are runs in a shared int pool
+// (a count followed by the node indexes). -1 stands for a missing node or declaration.
+// Nodes are stored in preorder, so every child comes after its parent. The arena is a compact
+// form for keeping and storing a tree (see AstCache); the passes themselves still run on the
+// object tree, which visit inflates for the length of the pass.
+public class AstArena {
+
+    public static final byte PROGRAM = 0;
+    public static final byte BLOCK = 1;
+    public static final byte CONST_DEC = 2;
+    public static final byte VAR_DEC = 3;
+    public static final byte PROC_DEC = 4;
+    public static final byte STATEMENT_ASSIGN = 5;
+    public static final byte STATEMENT_CALL = 6;
+    public static final byte STATEMENT_INPUT = 7;
+    public static final byte STATEMENT_OUTPUT = 8;
+    public static final byte STATEMENT_BLOCK = 9;
+    public static final byte STATEMENT_IF = 10;
+    public static final byte STATEMENT_WHILE = 11;
+    public static final byte STATEMENT_EMPTY = 12;
+    public static final byte EXPRESSION_BINARY = 13;
+    public static final byte EXPRESSION_IDENT = 14;
+    public static final byte EXPRESSION_NUM_LIT = 15;
+    public static final byte EXPRESSION_STRING_LIT = 16;
+    public static final byte EXPRESSION_BOOLEAN_LIT = 17;
+    public static final byte IDENT = 18;
+
+    // tags for the value of a CONST_DEC
+    public static final int CONST_NUMBER = 0;
+    public static final int CONST_BOOLEAN = 1;
+    public static final int CONST_STRING = 2;
+
+    private static final Type[] TYPES = Type.values();
+
+    // "PLPA" and the layout version of write
+    private static final int MAGIC = 0x504c5041;
+    private static final int VERSION = 1;
+
+    // per node; what a, b and c hold depends on the kind:
+    //   PROGRAM          a = block
+    //   BLOCK            a = list of consts, then vars, then procedures; b = statement
+    //   CONST_DEC        a = ident token; b = value tag; c = int value, 0/1, or string index
+    //   VAR_DEC          a = ident token
+    //   PROC_DEC         a = ident token; b = block
+    //   STATEMENT_ASSIGN a = ident; b = expression
+    //   STATEMENT_CALL, STATEMENT_INPUT    a = ident
+    //   STATEMENT_OUTPUT a = expression
+    //   STATEMENT_BLOCK  a = list of statements
+    //   STATEMENT_IF, STATEMENT_WHILE      a = expression; b = statement
+    //   EXPRESSION_BINARY                  a = e0; b = op token; c = e1
+    byte[] kinds;
+    int[] tokens;
+    int[] a;
+    int[] b;
+    int[] c;
+    // type ordinal, or -1
+    byte[] types;
+    int[] nests;
+    // node index of the resolved declaration, or -1
+    int[] decs;
+    int size;
+    int[] lists;
+    int listsSize;
+    List<String> strings;
+    TokenStream tokenStream;
+
+    AstArena() {
+        kinds = new byte[64];
+        tokens = new int[64];
+        a = new int[64];
+        b = new int[64];
+        c = new int[64];
+        types = new byte[64];
+        nests = new int[64];
+        decs = new int[64];
+        size = 0;
+        lists = new int[64];
+        listsSize = 0;
+        strings = new ArrayList<>();
+        tokenStream = new TokenStream();
+    }
+
+    public static AstArena fromProgram(Program program) {
+        return new Flattener().flatten(program);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int root() {
+        return size == 0 ? -1 : 0;
+    }
+
+    public byte getKind(int node) {
+        return kinds[node];
+    }
+
+    public IToken getToken(int node) {
+        return tokens[node] < 0 ? null : tokenStream.getToken(tokens[node]);
+    }
+
+    public int getA(int node) {
+        return a[node];
+    }
+
+    public int getB(int node) {
+        return b[node];
+    }
+
+    public int getC(int node) {
+        return c[node];
+    }
+
+    public Type getType(int node) {
+        return types[node] < 0 ? null : TYPES[types[node]];
+    }
+
+    public int getNest(int node) {
+        return nests[node];
+    }
+
+    public int getDec(int node) {
+        return decs[node];
+    }
+
+    public int listSize(int list) {
+        return lists[list];
+    }
+
+    public int listItem(int list, int i) {
+        return lists[list + 1 + i];
+    }
+
+    public String getString(int i) {
+        return strings.get(i);
+    }
+
+    public TokenStream getTokens() {
+        return tokenStream;
+    }
+
+    // Runs an existing visitor: the tree is inflated, visited, and anything the visitor
+    // decorated (types, nesting levels, declarations) is written back into the arena. While the
+    // pass runs the whole object tree is on the heap, as if it had never been flattened.
+    public Object visit(ASTVisitor v, Object arg) throws PLPException {
+        Inflater inflater = new Inflater();
+        Program program = inflater.inflate();
+        Object result = program.visit(v, arg);
+        inflater.writeBack();
+        return result;
+    }
+
+    public Program toProgram() {
+        return new Inflater().inflate();
+    }
+
+    // the layout mirrors the arrays, so read is a handful of bulk copies
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        tokenStream.write(out);
+        out.writeInt(size);
+        out.write(kinds, 0, size);
+        out.write(types, 0, size);
+        for (int[] column : new int[][] { tokens, a, b, c, nests, decs }) {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(column[i]);
+            }
+        }
+        out.writeInt(listsSize);
+        for (int i = 0; i < listsSize; i++) {
+            out.writeInt(lists[i]);
+        }
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeInt(string.length());
+            out.writeChars(string);
+        }
+    }
+
+    public static AstArena read(ByteBuffer in) throws IOException {
+        if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a serialized AST");
+        }
+        AstArena arena = new AstArena();
+        arena.tokenStream = TokenStream.read(in);
+        int size = count(in, 26);
+        arena.kinds = new byte[Math.max(size, 1)];
+        in.get(arena.kinds, 0, size);
+        arena.types = new byte[Math.max(size, 1)];
+        in.get(arena.types, 0, size);
+        arena.tokens = readInts(in, size);
+        arena.a = readInts(in, size);
+        arena.b = readInts(in, size);
+        arena.c = readInts(in, size);
+        arena.nests = readInts(in, size);
+        arena.decs = readInts(in, size);
+        arena.size = size;
+        arena.listsSize = count(in, 4);
+        arena.lists = readInts(in, arena.listsSize);
+        int stringCount = count(in, 4);
+        for (int i = 0; i < stringCount; i++) {
+            char[] string = new char[count(in, 2)];
+            in.asCharBuffer().get(string);
+            in.position(in.position() + string.length * 2);
+            arena.strings.add(new String(string));
+        }
+        return arena;
+    }
+
+    // a length read back from a serialized entry, checked against what is left of it
+    private static int count(ByteBuffer in, int width) throws IOException {
+        int n = in.remaining() < 4 ? -1 : in.getInt();
+        if (n < 0 || (long) n * width > in.remaining()) {
+            throw new IOException("Truncated or corrupt entry");
+        }
+        return n;
+    }
+
+    private static int[] readInts(ByteBuffer in, int n) {
+        int[] ints = new int[Math.max(n, 1)];
+        in.asIntBuffer().get(ints, 0, n);
+        in.position(in.position() + n * 4);
+        return ints;
+    }
+
+    int addNode(byte kind, int token) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            a = Arrays.copyOf(a, capacity);
+            b = Arrays.copyOf(b, capacity);
+            c = Arrays.copyOf(c, capacity);
+            types = Arrays.copyOf(types, capacity);
+            nests = Arrays.copyOf(nests, capacity);
+            decs = Arrays.copyOf(decs, capacity);
+        }
+        kinds[size] = kind;
+        tokens[size] = token;
+        a[size] = -1;
+        b[size] = -1;
+        c[size] = -1;
+        types[size] = -1;
+        nests[size] = 0;
+        decs[size] = -1;
+        return size++;
+    }
+
+    int addList(int count) {
+        if (listsSize + count + 1 > lists.length) {
+            lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listsSize + count + 1));
+        }
+        int list = listsSize;
+        lists[list] = count;
+        listsSize += count + 1;
+        return list;
+    }
+
+    private static class Flattener {
+
+        // where a node's index goes once it is added: one of the parent's columns, or a list slot
+        private static final int A = 0;
+        private static final int B = 1;
+        private static final int C = 2;
+        private static final int LIST = 3;
+
+        private record Pending(ASTNode node, int column, int slot) {
+        }
+
+        private final AstArena arena = new AstArena();
+        // a token shared by several nodes is stored once
+        private final Map<IToken, Integer> tokenIndexes = new IdentityHashMap<>();
+        private final Map<Declaration, Integer> decIndexes = new IdentityHashMap<>();
+        private final Map<Integer, Declaration> pendingDecs = new HashMap<>();
+        // an explicit stack instead of recursion, so nesting depth is not bounded by the thread's
+        // stack; children are pushed in reverse, so nodes are added in preorder and every child
+        // comes after its parent
+        private final Deque<Pending> work = new ArrayDeque<>();
+
+        AstArena flatten(Program program) {
+            if (program != null) {
+                work.push(new Pending(program, -1, -1));
+            }
+            while (!work.isEmpty()) {
+                Pending pending = work.pop();
+                int n = node(pending.node());
+                switch (pending.column()) {
+                    case A -> arena.a[pending.slot()] = n;
+                    case B -> arena.b[pending.slot()] = n;
+                    case C -> arena.c[pending.slot()] = n;
+                    case LIST -> arena.lists[pending.slot()] = n;
+                    default -> {
+                    }
+                }
+            }
+            // declarations may come after their uses in tree order
+            for (Map.Entry<Integer, Declaration> use : pendingDecs.entrySet()) {
+                Integer dec = decIndexes.get(use.getValue());
+                arena.decs[use.getKey()] = dec == null ? -1 : dec;
+            }
+            return arena;
+        }
+
+        private int token(IToken token) {
+            if (token == null) {
+                return -1;
+            }
+            Integer index = tokenIndexes.get(token);
+            if (index == null) {
+                index = arena.tokenStream.size();
+                arena.tokenStream.add(token);
+                tokenIndexes.put(token, index);
+            }
+            return index;
+        }
+
+        // a missing child stays -1
+        private void child(ASTNode node, int column, int slot) {
+            if (node != null) {
+                work.push(new Pending(node, column, slot));
+            }
+            else if (column == LIST) {
+                arena.lists[slot] = -1;
+            }
+        }
+
+        private void list(List<? extends ASTNode> nodes, int slot) {
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                child(nodes.get(i), LIST, slot + i);
+            }
+        }
+
+        // adds node and schedules its children
+        private int node(ASTNode node) {
+            int n;
+            if (node instanceof Program program) {
+                n = arena.addNode(PROGRAM, token(program.firstToken));
+                child(program.block, A, n);
+            }
+            else if (node instanceof Block block) {
+                n = arena.addNode(BLOCK, token(block.firstToken));
+                int consts = block.constDecs.size();
+                int vars = block.varDecs.size();
+                int procs = block.procedureDecs.size();
+                // the three counted runs sit back to back in one list
+                int list = arena.addList(consts + vars + procs + 3);
+                arena.lists[list + 1] = consts;
+                arena.lists[list + 2 + consts] = vars;
+                arena.lists[list + 3 + consts + vars] = procs;
+                arena.a[n] = list;
+                child(block.statement, B, n);
+                list(block.procedureDecs, list + 4 + consts + vars);
+                list(block.varDecs, list + 3 + consts);
+                list(block.constDecs, list + 2);
+            }
+            else if (node instanceof ConstDec constDec) {
+                n = declaration(CONST_DEC, constDec);
+                arena.a[n] = token(constDec.ident);
+                if (constDec.val instanceof Integer value) {
+                    arena.b[n] = CONST_NUMBER;
+                    arena.c[n] = value;
+                }
+                else if (constDec.val instanceof Boolean value) {
+                    arena.b[n] = CONST_BOOLEAN;
+                    arena.c[n] = value ? 1 : 0;
+                }
+                else {
+                    arena.b[n] = CONST_STRING;
+                    arena.c[n] = arena.strings.size();
+                    arena.strings.add((String) constDec.val);
+                }
+            }
+            else if (node instanceof VarDec varDec) {
+                n = declaration(VAR_DEC, varDec);
+                arena.a[n] = token(varDec.ident);
+            }
+            else if (node instanceof ProcDec procDec) {
+                n = declaration(PROC_DEC, procDec);
+                arena.a[n] = token(procDec.ident);
+                child(procDec.block, B, n);
+            }
+            else if (node instanceof StatementAssign assign) {
+                n = arena.addNode(STATEMENT_ASSIGN, token(assign.firstToken));
+                child(assign.expression, B, n);
+                child(assign.ident, A, n);
+            }
+            else if (node instanceof StatementCall call) {
+                n = arena.addNode(STATEMENT_CALL, token(call.firstToken));
+                child(call.ident, A, n);
+            }
+            else if (node instanceof StatementInput input) {
+                n = arena.addNode(STATEMENT_INPUT, token(input.firstToken));
+                child(input.ident, A, n);
+            }
+            else if (node instanceof StatementOutput output) {
+                n = arena.addNode(STATEMENT_OUTPUT, token(output.firstToken));
+                child(output.expression, A, n);
+            }
+            else if (node instanceof StatementBlock statementBlock) {
+                n = arena.addNode(STATEMENT_BLOCK, token(statementBlock.firstToken));
+                int list = arena.addList(statementBlock.statements.size());
+                arena.a[n] = list;
+                list(statementBlock.statements, list + 1);
+            }
+            else if (node instanceof StatementIf statementIf) {
+                n = arena.addNode(STATEMENT_IF, token(statementIf.firstToken));
+                child(statementIf.statement, B, n);
+                child(statementIf.expression, A, n);
+            }
+            else if (node instanceof StatementWhile statementWhile) {
+                n = arena.addNode(STATEMENT_WHILE, token(statementWhile.firstToken));
+                child(statementWhile.statement, B, n);
+                child(statementWhile.expression, A, n);
+            }
+            else if (node instanceof StatementEmpty) {
+                n = arena.addNode(STATEMENT_EMPTY, token(node.firstToken));
+            }
+            else if (node instanceof ExpressionBinary binary) {
+                n = expression(EXPRESSION_BINARY, binary);
+                arena.b[n] = token(binary.op);
+                child(binary.e1, C, n);
+                child(binary.e0, A, n);
+            }
+            else if (node instanceof ExpressionIdent expressionIdent) {
+                n = expression(EXPRESSION_IDENT, expressionIdent);
+                arena.nests[n] = expressionIdent.nest;
+                use(n, expressionIdent.dec);
+            }
+            else if (node instanceof ExpressionNumLit) {
+                n = expression(EXPRESSION_NUM_LIT, (Expression) node);
+            }
+            else if (node instanceof ExpressionStringLit) {
+                n = expression(EXPRESSION_STRING_LIT, (Expression) node);
+            }
+            else if (node instanceof ExpressionBooleanLit) {
+                n = expression(EXPRESSION_BOOLEAN_LIT, (Expression) node);
+            }
+            else {
+                Ident ident = (Ident) node;
+                n = arena.addNode(IDENT, token(ident.firstToken));
+                arena.nests[n] = ident.nest;
+                use(n, ident.dec);
+            }
+            return n;
+        }
+
+        private int declaration(byte kind, Declaration dec) {
+            int n = arena.addNode(kind, token(dec.firstToken));
+            arena.types[n] = dec.type == null ? -1 : (byte) dec.type.ordinal();
+            arena.nests[n] = dec.nest;
+            decIndexes.put(dec, n);
+            return n;
+        }
+
+        private int expression(byte kind, Expression expression) {
+            int n = arena.addNode(kind, token(expression.firstToken));
+            arena.types[n] = expression.type == null ? -1 : (byte) expression.type.ordinal();
+            return n;
+        }
+
+        private void use(int n, Declaration dec) {
+            if (dec != null) {
+                pendingDecs.put(n, dec);
+            }
+        }
+    }
+
+    private class Inflater {
+
+        private final ASTNode[] nodes = new ASTNode[size];
+        private final boolean[] claimed = new boolean[size];
+        private final IToken[] tokenObjects = new IToken[tokenStream.size()];
+
+        private IToken token(int index) {
+            if (index < 0) {
+                return null;
+            }
+            // nodes that shared a token share the IToken again
+            if (tokenObjects[index] == null) {
+                tokenObjects[index] = tokenStream.getToken(index);
+            }
+            return tokenObjects[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends ASTNode> List<T> list(int parent, int list, int start, int count) {
+            if (count < 0 || list < 0 || (long) list + 1 + start + count > listsSize) {
+                throw new IllegalStateException("Corrupt AST arena");
+            }
+            List<T> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add((T) child(parent, lists[list + 1 + start + i]));
+            }
+            return result;
+        }
+
+        // child n of parent, already built
+        private ASTNode child(int parent, int n) {
+            if (n < 0) {
+                return null;
+            }
+            // children come after their parent and hang off exactly one; anything else is a
+            // corrupt arena
+            if (n <= parent || n >= size || claimed[n]) {
+                throw new IllegalStateException("Corrupt AST arena");
+            }
+            claimed[n] = true;
+            return nodes[n];
+        }
+
+        private ASTNode node(int n) {
+            ASTNode node = switch (kinds[n]) {
+                case PROGRAM -> new Program(token(tokens[n]), (Block) child(n, a[n]));
+                case BLOCK -> {
+                    int list = a[n];
+                    if (list < 0 || list + 1 >= listsSize) {
+                        throw new IllegalStateException("Corrupt AST arena");
+                    }
+                    int consts = lists[list + 1];
+                    List<ConstDec> constDecs = list(n, list, 1, consts);
+                    int vars = lists[list + 2 + consts];
+                    List<VarDec> varDecs = list(n, list, 2 + consts, vars);
+                    int procs = lists[list + 3 + consts + vars];
+                    List<ProcDec> procDecs = list(n, list, 3 + consts + vars, procs);
+                    yield new Block(token(tokens[n]), constDecs, varDecs, procDecs, (Statement) child(n, b[n]));
+                }
+                case CONST_DEC -> new ConstDec(token(tokens[n]), token(a[n]), switch (b[n]) {
+                    case CONST_NUMBER -> (Object) c[n];
+                    case CONST_BOOLEAN -> (Object) (c[n] == 1);
+                    default -> (Object) strings.get(c[n]);
+                });
+                case VAR_DEC -> new VarDec(token(tokens[n]), token(a[n]));
+                case PROC_DEC -> new ProcDec(token(tokens[n]), token(a[n]), (Block) child(n, b[n]));
+                case STATEMENT_ASSIGN -> new StatementAssign(token(tokens[n]), (Ident) child(n, a[n]), (Expression) child(n, b[n]));
+                case STATEMENT_CALL -> new StatementCall(token(tokens[n]), (Ident) child(n, a[n]));
+                case STATEMENT_INPUT -> new StatementInput(token(tokens[n]), (Ident) child(n, a[n]));
+                case STATEMENT_OUTPUT -> new StatementOutput(token(tokens[n]), (Expression) child(n, a[n]));
+                case STATEMENT_BLOCK -> {
+                    if (a[n] < 0 || a[n] >= listsSize) {
+                        throw new IllegalStateException("Corrupt AST arena");
+                    }
+                    yield new StatementBlock(token(tokens[n]), list(n, a[n], 0, lists[a[n]]));
+                }
+                case STATEMENT_IF -> new StatementIf(token(tokens[n]), (Expression) child(n, a[n]), (Statement) child(n, b[n]));
+                case STATEMENT_WHILE -> new StatementWhile(token(tokens[n]), (Expression) child(n, a[n]), (Statement) child(n, b[n]));
+                case STATEMENT_EMPTY -> new StatementEmpty(token(tokens[n]));
+                case EXPRESSION_BINARY -> new ExpressionBinary(token(tokens[n]), (Expression) child(n, a[n]), token(b[n]), (Expression) child(n, c[n]));
+                case EXPRESSION_IDENT -> new ExpressionIdent(token(tokens[n]));
+                case EXPRESSION_NUM_LIT -> new ExpressionNumLit(token(tokens[n]));
+                case EXPRESSION_STRING_LIT -> new ExpressionStringLit(token(tokens[n]));
+                case EXPRESSION_BOOLEAN_LIT -> new ExpressionBooleanLit(token(tokens[n]));
+                default -> new Ident(token(tokens[n]));
+            };
+            Type type = getType(n);
+            if (node instanceof Declaration dec) {
+                dec.type = type;
+                dec.nest = nests[n];
+            }
+            else if (node instanceof Expression expression) {
+                expression.type = type;
+            }
+            return node;
+        }
+
+        Program inflate() {
+            // children come after their parents, so building from the last node back finds every
+            // child already built, with no recursion
+            for (int n = size - 1; n >= 0; n--) {
+                nodes[n] = node(n);
+            }
+            Program program = (Program) (size == 0 ? null : nodes[root()]);
+            // every node exists now, so uses can point at their declarations
+            for (int i = 0; i < size; i++) {
+                Declaration dec = decs[i] < 0 ? null : (Declaration) nodes[decs[i]];
+                if (nodes[i] instanceof Ident ident) {
+                    ident.dec = dec;
+                    ident.nest = nests[i];
+                }
+                else if (nodes[i] instanceof ExpressionIdent expressionIdent) {
+                    expressionIdent.dec = dec;
+                    expressionIdent.nest = nests[i];
+                }
+            }
+            return program;
+        }
+
+        // copies whatever a visitor decorated back into the arrays
+        void writeBack() {
+            Map<ASTNode, Integer> indexes = new IdentityHashMap<>();
+            for (int i = 0; i < size; i++) {
+                indexes.put(nodes[i], i);
+            }
+            for (int i = 0; i < size; i++) {
+                ASTNode node = nodes[i];
+                Declaration dec = null;
+                if (node instanceof Declaration declaration) {
+                    types[i] = declaration.type == null ? -1 : (byte) declaration.type.ordinal();
+                    nests[i] = declaration.nest;
+                }
+                else if (node instanceof Expression expression) {
+                    types[i] = expression.type == null ? -1 : (byte) expression.type.ordinal();
+                }
+                if (node instanceof Ident ident) {
+                    nests[i] = ident.nest;
+                    dec = ident.dec;
+                }
+                else if (node instanceof ExpressionIdent expressionIdent) {
+                    nests[i] = expressionIdent.nest;
+                    dec = expressionIdent.dec;
+                }
+                if (node instanceof Ident || node instanceof ExpressionIdent) {
+                    Integer index = dec == null ? null : indexes.get(dec);
+                    decs[i] = index == null ? -1 : index;
+                }
+            }
+        }
+    }
+}
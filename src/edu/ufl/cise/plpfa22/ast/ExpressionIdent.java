@@ -11,6 +11,7 @@ public class ExpressionIdent extends Expression {
 	
 	Declaration dec;
 	int nest;
+	Address address;
 	
 	public ExpressionIdent(IToken firstToken) {
 		super(firstToken);
@@ -43,4 +44,8 @@ public class ExpressionIdent extends Expression {
 
 	public void setNest(int nest) { this.nest = nest; }
 
+	public Address getAddress() { return address; }
+
+	public void setAddress(Address address) { this.address = address; }
+
 }
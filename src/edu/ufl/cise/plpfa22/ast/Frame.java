@@ -0,0 +1,82 @@
+package edu.ufl.cise.plpfa22.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A scope open at a use: the procedure whose body it is, linked to the scopes enclosing it.
+// Nested scopes share their enclosing chain, so opening one costs the same at any depth; the
+// JVM class of a scope is only spelled out when code generation binds an address to it.
+public final class Frame {
+
+	final Frame outer;
+	// the procedure's name, null for the program
+	final String name;
+	final int depth;
+
+	String programClass;
+	String className;
+
+	private Frame(Frame outer, String name, int depth) {
+		this.outer = outer;
+		this.name = name;
+		this.depth = depth;
+	}
+
+	// the program's scope
+	public static Frame root() {
+		return new Frame(null, null, 0);
+	}
+
+	// the body of procedure name, inside this scope
+	public Frame enter(String name) {
+		return new Frame(this, name, depth + 1);
+	}
+
+	public Frame getOuter() {
+		return outer;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	// programClass for the program, programClass$p$q for the body of q declared in p
+	public String className(String programClass) {
+		if (!programClass.equals(this.programClass)) {
+			// walk out to the nearest scope already named, then name the ones inside it
+			List<Frame> unnamed = new ArrayList<>();
+			for (Frame frame = this; frame != null && !programClass.equals(frame.programClass); frame = frame.outer) {
+				unnamed.add(frame);
+			}
+			for (int i = unnamed.size() - 1; i >= 0; i--) {
+				Frame frame = unnamed.get(i);
+				frame.className = frame.outer == null ? programClass : frame.outer.className + "$" + frame.name;
+				frame.programClass = programClass;
+			}
+		}
+		return className;
+	}
+
+	// the same procedures open, outermost to innermost; stops where the chains are shared
+	public boolean sameAs(Frame other) {
+		Frame a = this;
+		Frame b = other;
+		while (a != b) {
+			if (a == null || b == null || a.depth != b.depth || (a.name == null ? b.name != null : !a.name.equals(b.name))) {
+				return false;
+			}
+			a = a.outer;
+			b = b.outer;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return name == null ? "<program>" : name;
+	}
+}
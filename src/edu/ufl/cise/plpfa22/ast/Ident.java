@@ -11,6 +11,7 @@ public class Ident extends ASTNode {
 	
 	Declaration dec;
 	int nest;
+	Address address;
 
 	public Ident(IToken firstToken) {
 		super(firstToken);
@@ -45,5 +46,9 @@ public class Ident extends ASTNode {
 	public int getNest() { return nest; }
 
 	public void setNest(int nest) { this.nest = nest; }
+
+	public Address getAddress() { return address; }
+
+	public void setAddress(Address address) { this.address = address; }
 	
 }